@@ -0,0 +1,12 @@
+# Compiles VotingContract.sol and regenerates the .abi and .bytecode files and the Java contract wrapper from it.
+# Requires node (solc-js is fetched with npx) and the web3j command-line tools.
+set -e
+cd "$(dirname "$0")"
+
+out=$(mktemp -d)
+npx --yes solc@0.5.17 --bin --abi -o "$out" src/main/solidity/VotingContract.sol
+cp "$out"/*VotingContract_sol_VotingContract.bin src/main/solidity/VotingContract.bytecode
+cp "$out"/*VotingContract_sol_VotingContract.abi src/main/solidity/VotingContract.abi
+rm -r "$out"
+
+web3j solidity generate -a=./src/main/solidity/VotingContract.abi -b=./src/main/solidity/VotingContract.bytecode -o=./src/main/java/edu/pentakon/votingapp -p=contract
@@ -0,0 +1,254 @@
+package edu.pentakon.votingapp;
+
+import edu.pentakon.votingapp.model.Election;
+import edu.pentakon.votingapp.model.VotePayload;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The operations of {@link EthereumService} as {@link CompletableFuture}s, so that callers can compose reads and
+ * writes without waiting for them on a thread of their own.
+ * <p>
+ * The calls run on a bounded pool of {@value #DEFAULT_THREADS} daemon threads (system property
+ * {@value #THREADS_PROPERTY}), so at most that many calls reach the node at the same time, each still a blocking
+ * request; up to {@value #QUEUE_CAPACITY} more wait for a thread and a call that does not fit completes with a
+ * {@link RejectedExecutionException} instead of piling up. Every call has a timeout, reads
+ * {@value #READ_TIMEOUT_SECONDS} s and transactions, which wait until they are mined, {@value #TRANSACTION_TIMEOUT_SECONDS}
+ * s. A paged read has the read timeout per page, so it does not depend on the size of the election. A call that times
+ * out completes with a {@link TimeoutException}; the request itself may still reach the chain.
+ * The futures complete on the pool's threads, continuations that take long should move elsewhere with the
+ * {@code ...Async} variants of {@link CompletableFuture}.
+ */
+public class AsyncEthereumService implements AutoCloseable {
+
+  public static final String THREADS_PROPERTY = "votingapp.chainThreads";
+  public static final int DEFAULT_THREADS = 16;
+  static final int QUEUE_CAPACITY = 1024;
+  static final long READ_TIMEOUT_SECONDS = 30;
+  static final long TRANSACTION_TIMEOUT_SECONDS = 300;
+
+  // shared by all instances, it only completes futures
+  private static final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "chain-call-timeouts");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final EthereumService ethereumService;
+  private final ThreadPoolExecutor executor;
+
+  public AsyncEthereumService(EthereumService ethereumService) {
+    this(ethereumService, Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS));
+  }
+
+  AsyncEthereumService(EthereumService ethereumService, int threads) {
+    this.ethereumService = ethereumService;
+    AtomicInteger count = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+      Thread thread = new Thread(runnable, "chain-call-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  public EthereumService getEthereumService() {
+    return ethereumService;
+  }
+
+  public CompletableFuture<Optional<Election>> getElection() {
+    return read(ethereumService::getElection);
+  }
+
+  public CompletableFuture<String[]> getParticipantPublicKeys() {
+    return read(ethereumService::getParticipantPublicKeys);
+  }
+
+  public CompletableFuture<Void> setupElection(Election election) {
+    return transaction(() -> ethereumService.setupElection(election));
+  }
+
+  public CompletableFuture<Void> submitVote(VotePayload payload, Map<String, String> mpcShares) {
+    return transaction(() -> ethereumService.submitVote(payload, mpcShares));
+  }
+
+  public CompletableFuture<Void> submitMPCSum(String publicKey, String value) {
+    return transaction(() -> ethereumService.submitMPCSum(publicKey, value));
+  }
+
+  public CompletableFuture<Void> endElection() {
+    return transaction(ethereumService::endElection);
+  }
+
+  public CompletableFuture<Boolean> tallyVotes() {
+    return read(ethereumService::tallyVotes);
+  }
+
+  public CompletableFuture<BigInteger> getVoteEndTS() {
+    return read(ethereumService::getVoteEndTS);
+  }
+
+  public CompletableFuture<List<String>> getMPCShares(String forUid) {
+    return read(() -> ethereumService.getMPCShares(forUid));
+  }
+
+  public CompletableFuture<Map<String, String>> getMPCSums() {
+    return read(ethereumService::getMPCSums);
+  }
+
+  public CompletableFuture<List<VotePayload>> getVotes(Collection<String> uids) {
+    return read(() -> ethereumService.getVotes(uids));
+  }
+
+  /**
+   * Subscribes on the pool's thread, since starting a subscription reads the current block, see
+   * {@link EthereumService#subscribe}.
+   */
+  public CompletableFuture<ContractEventSubscription> subscribe(BiConsumer<ContractEvent, String> listener) {
+    return read(() -> ethereumService.subscribe(listener));
+  }
+
+  /**
+   * @param consumer called for every page on the pool's thread, see {@link EthereumService#forEachVotePage}. The
+   *                 timeout starts again with every page, a read that times out stops before the next page.
+   */
+  public CompletableFuture<Void> forEachVotePage(EthereumService.PageConsumer<VotePayload> consumer) {
+    return submit(deadline -> () -> {
+      ethereumService.forEachVotePage(page -> {
+        deadline.restart();
+        consumer.accept(page);
+      });
+      return null;
+    }, READ_TIMEOUT_SECONDS);
+  }
+
+  private interface Transaction {
+    void run() throws Exception;
+  }
+
+  private <T> CompletableFuture<T> read(Callable<T> call) {
+    return submit(call, READ_TIMEOUT_SECONDS);
+  }
+
+  private CompletableFuture<Void> transaction(Transaction transaction) {
+    return submit(() -> {
+      transaction.run();
+      return null;
+    }, TRANSACTION_TIMEOUT_SECONDS);
+  }
+
+  private <T> CompletableFuture<T> submit(Callable<T> call, long timeoutSeconds) {
+    return submit(deadline -> call, timeoutSeconds);
+  }
+
+  /**
+   * @param call gets the deadline of the call, to restart it whenever the call makes progress
+   */
+  private <T> CompletableFuture<T> submit(Function<Deadline, Callable<T>> call, long timeoutSeconds) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    Deadline deadline = new Deadline(future, timeoutSeconds);
+    Callable<T> task = call.apply(deadline);
+    try {
+      executor.execute(() -> {
+        if (future.isDone())
+          return; // timed out while waiting in the queue
+        try {
+          future.complete(task.call());
+        } catch (Throwable e) {
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(new RejectedExecutionException(
+        String.format("Too many chain calls in flight, at most %d can wait.", QUEUE_CAPACITY), e));
+      return future;
+    }
+    deadline.start();
+    future.whenComplete((result, error) -> deadline.cancel());
+    return future;
+  }
+
+  /**
+   * Completes the future of a call with a {@link TimeoutException} unless it completes in time.
+   */
+  private static final class Deadline {
+    private final CompletableFuture<?> future;
+    private final long timeoutSeconds;
+    private ScheduledFuture<?> timeout;
+
+    Deadline(CompletableFuture<?> future, long timeoutSeconds) {
+      this.future = future;
+      this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * Gives the call the whole timeout again from now on.
+     *
+     * @throws CancellationException if the call has already timed out, to stop it
+     */
+    synchronized void restart() {
+      if (future.isDone())
+        throw new CancellationException("Chain call has timed out.");
+      start();
+    }
+
+    synchronized void start() {
+      cancel();
+      if (future.isDone())
+        return; // finished before the timeout was started
+      timeout = timeouts.schedule(
+        () -> future.completeExceptionally(new TimeoutException(String.format("Chain call did not finish within %d s.", timeoutSeconds))),
+        timeoutSeconds, TimeUnit.SECONDS);
+    }
+
+    synchronized void cancel() {
+      if (timeout != null)
+        timeout.cancel(false);
+    }
+  }
+
+  /**
+   * Waits for a future of this service, for callers that need the result right away.
+   *
+   * @throws Exception the exception the call failed with
+   */
+  public static <T> T await(CompletableFuture<T> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+  }
+
+  /**
+   * @return the exception a call failed with, unwrapped from the {@link CompletionException} of a dependent future
+   */
+  public static Throwable cause(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+}
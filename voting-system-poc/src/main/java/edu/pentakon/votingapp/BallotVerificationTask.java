@@ -0,0 +1,73 @@
+package edu.pentakon.votingapp;
+
+import edu.pentakon.votingapp.model.Ballot;
+import edu.pentakon.votingapp.model.BallotCodec;
+import edu.pentakon.votingapp.model.NIProof;
+import edu.pentakon.votingapp.model.VotePayload;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fork/join task that decodes and verifies a range of submitted votes.
+ * The range is split in halves until it is small enough to be decoded and batch verified by one worker.
+ * Every accepted ballot is written at the index of its payload, rejected ones leave their slot null,
+ * so the caller gets the ballots back in their original order without any merging.
+ */
+final class BallotVerificationTask extends RecursiveAction {
+
+  static final int CHUNK_SIZE = 256;
+
+  private static final Logger logger = Logger.getLogger(BallotVerificationTask.class.getName());
+
+  private final VotePayload[] payloads;
+  private final Ballot[] accepted;
+  private final int from;
+  private final int to;
+  private final long votingEnd;
+  private final VotingCryptoService cryptoService;
+
+  BallotVerificationTask(VotePayload[] payloads, Ballot[] accepted, int from, int to, long votingEnd, VotingCryptoService cryptoService) {
+    this.payloads = payloads;
+    this.accepted = accepted;
+    this.from = from;
+    this.to = to;
+    this.votingEnd = votingEnd;
+    this.cryptoService = cryptoService;
+  }
+
+  @Override
+  protected void compute() {
+    if (to - from > CHUNK_SIZE) {
+      int middle = (from + to) >>> 1;
+      invokeAll(
+        new BallotVerificationTask(payloads, accepted, from, middle, votingEnd, cryptoService),
+        new BallotVerificationTask(payloads, accepted, middle, to, votingEnd, cryptoService)
+      );
+      return;
+    }
+
+    Ballot[] ballots = new Ballot[to - from];
+    NIProof[] proofs = new NIProof[to - from];
+    String[] publicKeys = new String[to - from];
+    BallotCodec codec = cryptoService.getBallotCodec();
+    for (int i = from; i < to; i++) {
+      try {
+        Ballot ballot = codec.decode(payloads[i].ballot);
+        ballots[i - from] = ballot;
+        proofs[i - from] = ballot.proof;
+        publicKeys[i - from] = payloads[i].uid;
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Could not decode ballot of {0}", new Object[]{payloads[i].uid});
+      }
+    }
+    boolean[] validProofs = cryptoService.verifyProofs(proofs, publicKeys);
+    for (int i = from; i < to; i++) {
+      // TODO Add verifySignature check! Also Vote timestamp validity, allowed voter id etc
+      if (validProofs[i - from] && payloads[i].submissionTimestamp <= votingEnd) {
+        accepted[i] = ballots[i - from];
+      }
+    }
+  }
+}
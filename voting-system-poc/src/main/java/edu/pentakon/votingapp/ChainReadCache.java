@@ -0,0 +1,127 @@
+package edu.pentakon.votingapp;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read-through cache for values of the voting contract, so that reading the roster and the election metadata again
+ * and again while polling and tallying costs no round trips.
+ * <p>
+ * A value is cached with one of two {@link Validity validities}. {@link Validity#BLOCK} values are valid as long as
+ * no new block has been mined, since the state of the contract can only change with a block. The number of the
+ * latest block is itself asked for at most every {@value #BLOCK_NUMBER_TTL_MILLIS} ms, so a value may be read from a
+ * block that is up to that old. {@link Validity#CONTRACT} values are valid until they are invalidated, for values the
+ * contract never changes or whose changes are signalled otherwise. Our own transactions invalidate the values they
+ * change right away, see {@link #invalidate(BigInteger, String...)}.
+ * <p>
+ * Hits and misses are counted for {@link #getHitRate()}. The cache is thread-safe; two threads that miss the same
+ * value at the same time may both load it.
+ */
+public final class ChainReadCache {
+
+  static final long BLOCK_NUMBER_TTL_MILLIS = 1000;
+
+  private static final Logger logger = Logger.getLogger(ChainReadCache.class.getName());
+
+  public enum Validity {
+    BLOCK, CONTRACT
+  }
+
+  private static final class Entry {
+    final Object value;
+    final Validity validity;
+    final BigInteger block; // the block the value was read at
+
+    Entry(Object value, Validity validity, BigInteger block) {
+      this.value = value;
+      this.validity = validity;
+      this.block = block;
+    }
+  }
+
+  private final Callable<BigInteger> blockNumber;
+  private final long blockNumberTtlMillis;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private volatile BigInteger latestBlock = BigInteger.valueOf(-1);
+  private volatile long latestBlockReadAt;
+
+  /**
+   * @param blockNumber asks the chain for the number of the latest block
+   */
+  ChainReadCache(Callable<BigInteger> blockNumber) {
+    this(blockNumber, BLOCK_NUMBER_TTL_MILLIS);
+  }
+
+  ChainReadCache(Callable<BigInteger> blockNumber, long blockNumberTtlMillis) {
+    this.blockNumber = blockNumber;
+    this.blockNumberTtlMillis = blockNumberTtlMillis;
+  }
+
+  /**
+   * @return the cached value of the key if it is still valid, otherwise the value of the loader, which is cached
+   */
+  @SuppressWarnings("unchecked")
+  <T> T get(String key, Validity validity, Callable<T> loader) throws Exception {
+    BigInteger block = validity == Validity.BLOCK ? latestBlock() : latestBlock;
+    Entry entry = entries.get(key);
+    if (entry != null && (entry.validity == Validity.CONTRACT || entry.block.compareTo(block) >= 0)) {
+      hits.incrementAndGet();
+      return (T) entry.value;
+    }
+    misses.incrementAndGet();
+    T value = loader.call();
+    entries.put(key, new Entry(value, validity, block));
+    return value;
+  }
+
+  /**
+   * Drops the values a transaction of ours changed.
+   *
+   * @param block the block the transaction was mined in, known to be the latest one, or null if not known
+   */
+  void invalidate(BigInteger block, String... keys) {
+    if (block != null && block.compareTo(latestBlock) > 0) {
+      latestBlock = block;
+      latestBlockReadAt = System.currentTimeMillis();
+    }
+    for (String key : keys) {
+      entries.remove(key);
+    }
+    logger.log(Level.FINE, "Invalidated {0} cached chain values, hit rate so far {1}", new Object[]{keys.length, getHitRate()});
+  }
+
+  private BigInteger latestBlock() throws Exception {
+    long now = System.currentTimeMillis();
+    if (now - latestBlockReadAt >= blockNumberTtlMillis) {
+      BigInteger block = blockNumber.call();
+      if (block.compareTo(latestBlock) > 0)
+        latestBlock = block;
+      latestBlockReadAt = now;
+    }
+    return latestBlock;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the share of the reads that were served from the cache, 0 before the first read
+   */
+  public double getHitRate() {
+    long hits = this.hits.get();
+    long total = hits + misses.get();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+}
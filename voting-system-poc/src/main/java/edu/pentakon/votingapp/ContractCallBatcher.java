@@ -0,0 +1,183 @@
+package edu.pentakon.votingapp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.protocol.ObjectMapperFactory;
+import org.web3j.protocol.core.DefaultBlockParameter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads many values of the voting contract at once. Instead of one blocking round trip per eth_call the calls are
+ * packed into JSON-RPC batch requests of {@value #DEFAULT_BATCH_SIZE} calls, of which up to
+ * {@value #DEFAULT_CONCURRENT_BATCHES} are in flight at the same time. Reading the votes of 10k participants takes ten
+ * batch requests, so about three round trips one after the other. Both can be changed with the system properties
+ * {@value #BATCH_SIZE_PROPERTY} and {@value #CONCURRENT_BATCHES_PROPERTY}.
+ * <p>
+ * All calls of a read are made against the same block, so a read that needs several batches still sees one state of
+ * the contract. The functions are the ones of the generated {@code contract.VotingContract} wrapper, encoded and
+ * decoded with the same web3j ABI classes.
+ */
+final class ContractCallBatcher implements AutoCloseable {
+
+  static final String BATCH_SIZE_PROPERTY = "votingapp.rpcBatchSize";
+  static final String CONCURRENT_BATCHES_PROPERTY = "votingapp.rpcConcurrentBatches";
+  static final int DEFAULT_BATCH_SIZE = 1000;
+  static final int DEFAULT_CONCURRENT_BATCHES = 4;
+
+  private static final Logger logger = Logger.getLogger(ContractCallBatcher.class.getName());
+  private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+  private final String url;
+  private final String contractAddress;
+  private final int batchSize;
+  private final OkHttpClient client = new OkHttpClient();
+  private final ObjectMapper mapper = ObjectMapperFactory.getObjectMapper();
+  private final ExecutorService executor;
+
+  ContractCallBatcher(String url, String contractAddress) {
+    this(url, contractAddress,
+      Integer.getInteger(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE),
+      Integer.getInteger(CONCURRENT_BATCHES_PROPERTY, DEFAULT_CONCURRENT_BATCHES));
+  }
+
+  ContractCallBatcher(String url, String contractAddress, int batchSize, int concurrentBatches) {
+    if (batchSize < 1 || concurrentBatches < 1)
+      throw new IllegalArgumentException("Batch size and number of concurrent batches must be positive.");
+    this.url = url;
+    this.contractAddress = contractAddress;
+    this.batchSize = batchSize;
+    this.executor = Executors.newFixedThreadPool(concurrentBatches, runnable -> {
+      Thread thread = new Thread(runnable, "rpc-batch");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * The node answered, but one of the calls failed, e.g. because it read past the end of an array of the contract.
+   */
+  static final class CallFailedException extends IOException {
+    CallFailedException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Calls all functions against the block and waits for the results.
+   *
+   * @return the decoded return values of every function, in the order of the functions
+   * @throws CallFailedException if the node returned an error or no value for one of the calls
+   * @throws IOException if a batch could not be sent
+   */
+  List<List<Type>> call(List<Function> functions, DefaultBlockParameter block) throws Exception {
+    List<List<Type>> results = new ArrayList<>(functions.size());
+    call(functions, block, results::addAll);
+    return results;
+  }
+
+  /**
+   * Calls all functions against the block and hands the results to the consumer batch by batch, in the order of the
+   * functions, while the next batches are already in flight. If a batch or the consumer fails, the batches that have
+   * not been sent yet are cancelled.
+   *
+   * @param consumer gets the decoded return values of every batch on the calling thread
+   * @throws CallFailedException if the node returned an error or no value for one of the calls
+   * @throws IOException if a batch could not be sent
+   */
+  void call(List<Function> functions, DefaultBlockParameter block, EthereumService.PageConsumer<List<Type>> consumer) throws Exception {
+    List<Future<List<List<Type>>>> batches = new ArrayList<>();
+    for (int from = 0; from < functions.size(); from += batchSize) {
+      List<Function> batch = functions.subList(from, Math.min(from + batchSize, functions.size()));
+      batches.add(executor.submit(() -> send(batch, block)));
+    }
+    boolean completed = false;
+    try {
+      for (Future<List<List<Type>>> batch : batches) {
+        consumer.accept(batch.get());
+      }
+      completed = true;
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    } finally {
+      if (!completed)
+        batches.forEach(batch -> batch.cancel(true));
+    }
+    logger.log(Level.FINE, "Read {0} values in {1} batches", new Object[]{functions.size(), batches.size()});
+  }
+
+  private List<List<Type>> send(List<Function> batch, DefaultBlockParameter block) throws IOException {
+    ArrayNode requests = mapper.createArrayNode();
+    for (int id = 0; id < batch.size(); id++) {
+      ObjectNode call = mapper.createObjectNode();
+      call.put("to", contractAddress);
+      call.put("data", FunctionEncoder.encode(batch.get(id)));
+      ObjectNode request = requests.addObject();
+      request.put("jsonrpc", "2.0");
+      request.put("id", id);
+      request.put("method", "eth_call");
+      request.putArray("params").add(call).add(block.getValue());
+    }
+
+    Request request = new Request.Builder()
+      .url(url)
+      .post(RequestBody.create(mapper.writeValueAsString(requests), JSON))
+      .build();
+    JsonNode responses;
+    try (Response response = client.newCall(request).execute()) {
+      if (!response.isSuccessful() || response.body() == null)
+        throw new IOException(String.format("JSON-RPC batch failed with HTTP status %d.", response.code()));
+      responses = mapper.readTree(response.body().byteStream());
+    }
+    if (!responses.isArray())
+      throw new IOException("JSON-RPC batch failed: " + responses.path("error").path("message").asText());
+
+    // the node may answer the calls of a batch in any order
+    String[] values = new String[batch.size()];
+    for (JsonNode response : responses) {
+      int id = response.path("id").asInt(-1);
+      if (id < 0 || id >= values.length)
+        throw new IOException("JSON-RPC batch response has an unknown id " + response.path("id"));
+      if (response.has("error"))
+        throw new CallFailedException(String.format("Call of %s failed: %s", batch.get(id).getName(), response.path("error").path("message").asText()));
+      values[id] = response.path("result").asText();
+    }
+    List<List<Type>> results = new ArrayList<>(batch.size());
+    for (int id = 0; id < values.length; id++) {
+      Function function = batch.get(id);
+      if (values[id] == null)
+        throw new IOException("JSON-RPC batch response has no result for call of " + function.getName());
+      List<Type> decoded = FunctionReturnDecoder.decode(values[id], function.getOutputParameters());
+      if (decoded.size() != function.getOutputParameters().size())
+        throw new CallFailedException(String.format("Call of %s returned no value, is the contract deployed?", function.getName()));
+      results.add(decoded);
+    }
+    return results;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    client.dispatcher().executorService().shutdown();
+    client.connectionPool().evictAll();
+  }
+}
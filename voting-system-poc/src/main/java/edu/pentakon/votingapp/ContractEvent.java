@@ -0,0 +1,59 @@
+package edu.pentakon.votingapp;
+
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.Utils;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.crypto.Hash;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The changes of the voting contract's state, one per function that changes it, see {@link EthereumService#subscribe}.
+ * The deployed contract emits no events, so a change is recognized by the method id of the transaction that made it.
+ */
+public enum ContractEvent {
+  VOTE_SUBMITTED("submitVote(string,string,string,string[],string[])", true),
+  ELECTION_ENDED("endElection()", false),
+  MPC_SUM_SUBMITTED("submitMPCShareSum(string,string)", true),
+  PARAMETERS_UPDATED("updateElectionParameters(uint256,uint256,string,string)", false);
+
+  private static final int METHOD_ID_LENGTH = 10; // "0x" and four bytes
+
+  private final String methodId;
+  private final boolean hasUid; // the first parameter is the uid of the voter or participant
+
+  ContractEvent(String signature, boolean hasUid) {
+    this.methodId = Hash.sha3String(signature).substring(0, METHOD_ID_LENGTH);
+    this.hasUid = hasUid;
+  }
+
+  /**
+   * @param input the input of a transaction to the contract
+   * @return the change the transaction makes, empty for calls of other functions
+   */
+  static Optional<ContractEvent> ofInput(String input) {
+    if (input == null || input.length() < METHOD_ID_LENGTH)
+      return Optional.empty();
+    for (ContractEvent event : values()) {
+      if (event.methodId.equalsIgnoreCase(input.substring(0, METHOD_ID_LENGTH)))
+        return Optional.of(event);
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * @param input the input of a transaction of this change
+   * @return the uid the vote or MPC sum was submitted for, null for the changes without one
+   */
+  String uidOf(String input) {
+    if (!hasUid)
+      return null;
+    List<Type> uid = FunctionReturnDecoder.decode(input.substring(METHOD_ID_LENGTH),
+      Utils.convert(Collections.<TypeReference<?>>singletonList(new TypeReference<Utf8String>() {})));
+    return uid.isEmpty() ? null : (String) uid.get(0).getValue();
+  }
+}
@@ -0,0 +1,197 @@
+package edu.pentakon.votingapp;
+
+import io.reactivex.disposables.Disposable;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.Transaction;
+import org.web3j.protocol.websocket.WebSocketService;
+import org.web3j.protocol.websocket.events.NewHeadsNotification;
+import org.web3j.utils.Numeric;
+
+import java.math.BigInteger;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers the {@link ContractEvent changes} of the voting contract to a listener as they are mined.
+ * <p>
+ * The deployed contract emits no events, so the subscription follows the blocks instead and picks out the
+ * transactions to the contract by their method id. New blocks are pushed by geth over its WebSocket endpoint with an
+ * eth_subscribe subscription of the new heads; every new block is then read once with its transactions. If the
+ * WebSocket cannot be connected or the connection drops, the block number is polled instead. The polling interval
+ * starts at {@value #MIN_POLL_INTERVAL_MILLIS} ms and doubles up to {@value #MAX_POLL_INTERVAL_MILLIS} ms while
+ * nothing happens; the WebSocket is tried again every {@value #RECONNECT_INTERVAL_MILLIS} ms. Every switch catches up
+ * on the blocks in between, so no change is lost. A transaction is delivered whether or not it succeeded, e.g. a vote
+ * sent after the end of the election, so listeners should react by reading the current state rather than by counting
+ * events.
+ * <p>
+ * Events are delivered one at a time on a single daemon thread, in the order they were mined.
+ */
+public final class ContractEventSubscription implements AutoCloseable {
+
+  static final long MIN_POLL_INTERVAL_MILLIS = 1000;
+  static final long MAX_POLL_INTERVAL_MILLIS = 16_000;
+  static final long RECONNECT_INTERVAL_MILLIS = 60_000;
+
+  private static final Logger logger = Logger.getLogger(ContractEventSubscription.class.getName());
+
+  private final Web3j web3j;
+  private final String webSocketUrl;
+  private final String contractAddress;
+  private final BiConsumer<ContractEvent, String> listener;
+  private final ScheduledExecutorService events = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "contract-events");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // only used on the events thread
+  private BigInteger lastBlock; // the last block whose transactions have all been delivered
+  private WebSocketService webSocket;
+  private Disposable subscription;
+  private long pollInterval = MIN_POLL_INTERVAL_MILLIS;
+  private long lastConnectAttempt;
+
+  /**
+   * @param web3j reads the blocks, and polls the block number when there is no WebSocket connection
+   * @param listener gets the change and the uid of the voter or participant it was made for, see
+   *                 {@link ContractEvent#uidOf}
+   */
+  ContractEventSubscription(Web3j web3j, String webSocketUrl, String contractAddress, BiConsumer<ContractEvent, String> listener) {
+    this.web3j = web3j;
+    this.webSocketUrl = webSocketUrl;
+    this.contractAddress = contractAddress;
+    this.listener = listener;
+  }
+
+  /**
+   * Starts with the changes of the next block.
+   */
+  void start() throws Exception {
+    lastBlock = web3j.ethBlockNumber().send().getBlockNumber();
+    events.execute(() -> {
+      if (!connect())
+        events.execute(this::poll);
+    });
+  }
+
+  /**
+   * @return whether new blocks are pushed over the WebSocket from now on
+   */
+  private boolean connect() {
+    lastConnectAttempt = System.currentTimeMillis();
+    try {
+      webSocket = new WebSocketService(webSocketUrl, false);
+      webSocket.connect();
+      subscription = Web3j.build(webSocket)
+        .newHeadsNotifications()
+        .subscribe(
+          notification -> events.execute(() -> onNewHead(notification)),
+          error -> events.execute(() -> onDisconnect(error)));
+      catchUp(); // the blocks mined while the subscription was set up
+      logger.log(Level.INFO, "Subscribed to the new blocks at {0}", webSocketUrl);
+      return true;
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Could not subscribe to the new blocks at {0}, polling instead: {1}", new Object[]{webSocketUrl, e.getMessage()});
+      disconnect();
+      return false;
+    }
+  }
+
+  private void onNewHead(NewHeadsNotification notification) {
+    if (events.isShutdown())
+      return;
+    try {
+      catchUp(Numeric.decodeQuantity(notification.getParams().getResult().getNumber()));
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Could not read the new block, polling instead: {0}", e.getMessage());
+      disconnect();
+      pollInterval = MIN_POLL_INTERVAL_MILLIS;
+      poll();
+    }
+  }
+
+  private void onDisconnect(Throwable error) {
+    if (events.isShutdown())
+      return;
+    logger.log(Level.WARNING, "Block subscription ended, polling instead: {0}", error.getMessage());
+    disconnect();
+    pollInterval = MIN_POLL_INTERVAL_MILLIS;
+    poll();
+  }
+
+  private void poll() {
+    if (events.isShutdown())
+      return;
+    try {
+      pollInterval = catchUp() ? MIN_POLL_INTERVAL_MILLIS : Math.min(2 * pollInterval, MAX_POLL_INTERVAL_MILLIS);
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Could not poll the contract changes: {0}", e.getMessage());
+      pollInterval = MAX_POLL_INTERVAL_MILLIS;
+    }
+    if (System.currentTimeMillis() - lastConnectAttempt >= RECONNECT_INTERVAL_MILLIS && connect())
+      return;
+    events.schedule(this::poll, pollInterval, TimeUnit.MILLISECONDS);
+  }
+
+  private boolean catchUp() throws Exception {
+    return catchUp(web3j.ethBlockNumber().send().getBlockNumber());
+  }
+
+  /**
+   * Delivers the changes of the blocks after the last one delivered, up to the given block.
+   *
+   * @return whether there were any
+   */
+  private boolean catchUp(BigInteger latest) throws Exception {
+    boolean delivered = false;
+    while (latest.compareTo(lastBlock) > 0) {
+      BigInteger number = lastBlock.add(BigInteger.ONE);
+      EthBlock.Block block = web3j.ethGetBlockByNumber(DefaultBlockParameter.valueOf(number), true).send().getBlock();
+      if (block == null)
+        break; // not yet known to the node, e.g. behind a load balancer
+      for (EthBlock.TransactionResult<?> result : block.getTransactions()) {
+        delivered |= deliver((Transaction) result.get(), number);
+      }
+      lastBlock = number;
+    }
+    return delivered;
+  }
+
+  private boolean deliver(Transaction transaction, BigInteger block) {
+    if (!contractAddress.equalsIgnoreCase(transaction.getTo()))
+      return false;
+    return ContractEvent.ofInput(transaction.getInput()).map(event -> {
+      try {
+        String uid = event.uidOf(transaction.getInput());
+        logger.log(Level.FINE, "Contract event {0} for {1} in block {2}", new Object[]{event, uid, block});
+        listener.accept(event, uid);
+      } catch (RuntimeException e) {
+        logger.log(Level.SEVERE, "Contract event listener failed", e);
+      }
+      return true;
+    }).orElse(false);
+  }
+
+  private void disconnect() {
+    if (subscription != null)
+      subscription.dispose();
+    if (webSocket != null)
+      webSocket.close();
+    subscription = null;
+    webSocket = null;
+  }
+
+  @Override
+  public void close() {
+    if (events.isShutdown())
+      return;
+    events.execute(this::disconnect);
+    events.shutdown();
+  }
+}
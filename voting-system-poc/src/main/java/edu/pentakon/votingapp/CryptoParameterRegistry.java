@@ -0,0 +1,136 @@
+package edu.pentakon.votingapp;
+
+import ch.bfh.unicrypt.crypto.schemes.encryption.classes.RSAEncryptionScheme;
+import ch.bfh.unicrypt.crypto.schemes.encryption.interfaces.AsymmetricEncryptionScheme;
+import ch.bfh.unicrypt.crypto.schemes.sharing.classes.ShamirSecretSharingScheme;
+import ch.bfh.unicrypt.crypto.schemes.sharing.interfaces.SecretSharingScheme;
+import ch.bfh.unicrypt.helper.factorization.Prime;
+import ch.bfh.unicrypt.helper.factorization.SafePrime;
+import ch.bfh.unicrypt.math.algebra.dualistic.classes.ZMod;
+import ch.bfh.unicrypt.math.algebra.dualistic.classes.ZModPrime;
+import ch.bfh.unicrypt.math.algebra.dualistic.classes.ZModPrimePair;
+import ch.bfh.unicrypt.math.algebra.general.interfaces.Set;
+import ch.bfh.unicrypt.math.algebra.multiplicative.classes.GStarModElement;
+import ch.bfh.unicrypt.math.algebra.multiplicative.classes.GStarModSafePrime;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Process-wide cache of the unicrypt objects that only depend on public parameters: the election group with its two
+ * independent generators, the Shamir sharing schemes and the RSA scheme with its spaces.
+ * <p>
+ * Deriving them is not free, the generators are found by hashing into the group, the sharing schemes need a 60 bit
+ * prime search and the RSA spaces a new key pair generator for every lookup. With the registry every parameter set
+ * is derived once per process, so logging in again or decrypting shares repeatedly only costs a lookup. Every kind
+ * of parameter is kept in its own least recently used cache of a few entries, so a long running client that goes
+ * through many elections does not keep all their groups alive. All methods are thread-safe.
+ */
+final class CryptoParameterRegistry {
+
+  static final int MAX_GROUPS = 8;
+  static final int MAX_SHARING_SCHEMES = 64; // one per (number of shares, threshold) seen
+  static final int MAX_RSA_SPACES = 4;
+
+  private static final BoundedCache<BigInteger, Group> groups = new BoundedCache<>(MAX_GROUPS);
+  private static final BoundedCache<List<Integer>, SecretSharingScheme> sharingSchemes = new BoundedCache<>(MAX_SHARING_SCHEMES);
+  private static final BoundedCache<List<BigInteger>, RsaSpaces> rsaSpaces = new BoundedCache<>(MAX_RSA_SPACES);
+
+  private CryptoParameterRegistry() {
+  }
+
+  /**
+   * The election group G_q of a safe prime p = 2q + 1 and its independent generators g and G.
+   */
+  static final class Group {
+    final GStarModSafePrime group;
+    final GStarModElement g;
+    final GStarModElement G;
+
+    private Group(SafePrime modQ) {
+      group = GStarModSafePrime.getInstance(modQ);
+      g = group.getIndependentGenerator(0);
+      G = group.getIndependentGenerator(1);
+    }
+  }
+
+  /**
+   * An RSA scheme and the spaces its keys, messages and ciphertexts are decoded from.
+   */
+  static final class RsaSpaces {
+    final AsymmetricEncryptionScheme scheme;
+    final BigInteger modulus;
+    final Set privateKeySpace;
+    final Set publicKeySpace;
+    final Set decryptionKeySpace;
+    final Set encryptionSpace;
+    final ZMod messageSpace;
+
+    private RsaSpaces(Prime p, Prime q) {
+      ZModPrimePair zMod = ZModPrimePair.getInstance(p, q);
+      scheme = RSAEncryptionScheme.getInstance(zMod);
+      modulus = zMod.getModulus();
+      privateKeySpace = scheme.getKeyPairGenerator().getPrivateKeySpace();
+      publicKeySpace = scheme.getKeyPairGenerator().getPublicKeySpace();
+      decryptionKeySpace = scheme.getDecryptionKeySpace();
+      encryptionSpace = scheme.getEncryptionSpace();
+      messageSpace = (ZMod) scheme.getMessageSpace();
+    }
+  }
+
+  static Group getGroup(SafePrime modQ) {
+    return groups.get(modQ.getValue(), value -> new Group(modQ));
+  }
+
+  /**
+   * @return a Shamir scheme over the first 60 bit prime field that splits a secret into size shares, threshold of
+   * which recover it
+   */
+  static SecretSharingScheme getSharingScheme(int size, int threshold) {
+    return sharingSchemes.get(Arrays.asList(size, threshold),
+      key -> ShamirSecretSharingScheme.getInstance(SharingField.INSTANCE, size, threshold));
+  }
+
+  static RsaSpaces getRsaSpaces(Prime p, Prime q) {
+    return rsaSpaces.get(Arrays.asList(p.getValue(), q.getValue()), key -> new RsaSpaces(p, q));
+  }
+
+  private static final class SharingField {
+    static final ZModPrime INSTANCE = ZModPrime.getFirstInstance(60); // searched on first use only
+  }
+
+  /**
+   * Least recently used map of a fixed capacity. Values are computed outside the lock, the parameters are
+   * deterministic so when two threads race for the same key both compute the same value and the first one is kept.
+   */
+  private static final class BoundedCache<K, V> {
+
+    private final Map<K, V> entries;
+
+    BoundedCache(int capacity) {
+      entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+          return size() > capacity;
+        }
+      };
+    }
+
+    V get(K key, Function<K, V> compute) {
+      synchronized (entries) {
+        V value = entries.get(key);
+        if (value != null)
+          return value;
+      }
+      V computed = compute.apply(key);
+      synchronized (entries) {
+        V existing = entries.putIfAbsent(key, computed);
+        return existing != null ? existing : computed;
+      }
+    }
+  }
+}
@@ -3,55 +3,159 @@ package edu.pentakon.votingapp;
 import contract.VotingContract;
 import edu.pentakon.votingapp.model.Election;
 import edu.pentakon.votingapp.model.VotePayload;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.abi.datatypes.generated.Uint256;
 import org.web3j.crypto.Credentials;
 import org.web3j.crypto.WalletUtils;
 import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
 import org.web3j.protocol.core.methods.response.TransactionReceipt;
 import org.web3j.protocol.http.HttpService;
-import org.web3j.tuples.generated.Tuple4;
 import org.web3j.tx.gas.DefaultGasProvider;
 
 import java.io.File;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 
-public class EthereumService {
+public class EthereumService implements AutoCloseable {
 
   private static final Logger logger = Logger.getLogger(EthereumService.class.getName());
 
   public static final String chainUrl = "http://localhost:8543/";
+  public static final String webSocketUrl = "ws://localhost:8544/";
   public static final String walletPassword = "seed";
   public static final String walletFilePath = "E:\\Temp\\geth\\blockchain\\keystore\\UTC--2020-05-18T20-27-54.470574600Z--842529e14bd005d0eb2642a53c27d87bf8289a0a";
-  public static final String votingContractAddress = "0x06508c1A17aE4fC42D3163E698bd6Af2B29e79B4";
+  public static final String CONTRACT_ADDRESS_PROPERTY = "votingapp.contractAddress";
+  public static final String votingContractAddress = System.getProperty(CONTRACT_ADDRESS_PROPERTY, "0x06508c1A17aE4fC42D3163E698bd6Af2B29e79B4");
+
+  // keys of the cached contract values
+  private static final String ROSTER = "allowedUIDs";
+  private static final String ELECTION = "election";
+  private static final String VOTE_END = "voteSubmitEndTS";
+  private static final String TALLY_READY = "tallyVotes";
+
+  // the threshold is stored with the prime as "prime;threshold", the contract has no parameter of its own for it
+  private static final String PARAMETER_SEPARATOR = ";";
 
   private final Web3j web3j;
   private final VotingContract contract;
+  private final ContractCallBatcher batcher;
+  private final ChainReadCache readCache;
+
+  /**
+   * Receives the pages of a paged read one after the other, so that the whole result never has to be held at once.
+   */
+  @FunctionalInterface
+  public interface PageConsumer<T> {
+    void accept(List<T> page) throws Exception;
+  }
 
   public EthereumService() throws Exception {
     web3j = Web3j.build(new HttpService(chainUrl));
     Credentials creds = WalletUtils.loadCredentials(walletPassword, new File(walletFilePath));
     contract = VotingContract.load(votingContractAddress, web3j, creds, new DefaultGasProvider());
+    batcher = new ContractCallBatcher(chainUrl, votingContractAddress);
+    readCache = new ChainReadCache(() -> web3j.ethBlockNumber().send().getBlockNumber());
     String testResult = contract.testDeployment().send();
     if (!"Success!".equalsIgnoreCase(testResult)) {
       throw new Exception("Either contract wrapper creation failed or the contract is not deployed in the chain.");
     }
   }
 
+  /**
+   * The election parameters as read from the contract, cached by {@link #getElection()}.
+   */
+  private static final class ElectionParameters {
+    final String title;
+    final long start, voteEnd;
+    final BigInteger prime;
+    final int threshold; // 0 if the election was set up without one
+
+    ElectionParameters(String title, long start, long voteEnd, BigInteger prime, int threshold) {
+      this.title = title;
+      this.start = start;
+      this.voteEnd = voteEnd;
+      this.prime = prime;
+      this.threshold = threshold;
+    }
+  }
+
+  /**
+   * @return the election with its roster, or empty if the parameters have not been set yet. The parameters are read
+   * with one batched call and cached until the next block.
+   */
   public Optional<Election> getElection() throws Exception {
-    String title = contract.electionTitle().send();
-    if(title == null || title.isEmpty()) {
+    ElectionParameters parameters = readCache.get(ELECTION, ChainReadCache.Validity.BLOCK, this::readElectionParameters);
+    if (parameters.title == null || parameters.title.isEmpty()) {
       return Optional.empty();
     }
-    long start = contract.starTimestamp().send().longValue();
-    long voteEnd = contract.voteSubmitEndTS().send().longValue();
-    BigInteger prime = new BigInteger(contract.cyclicGroupPrime().send());
-    String[] allowedUIDs = contract.allowedUIDs().send().split(";");
-    return Optional.of(new Election(title, start, voteEnd, prime).setAllowedVoterIds(allowedUIDs));
+    return Optional.of(new Election(parameters.title, parameters.start, parameters.voteEnd, parameters.prime)
+      .setAllowedVoterIds(getParticipantPublicKeys())
+      .setThreshold(parameters.threshold));
+  }
+
+  private ElectionParameters readElectionParameters() throws Exception {
+    List<List<Type>> results = batcher.call(Arrays.asList(
+      new Function(VotingContract.FUNC_ELECTIONTITLE, Collections.emptyList(), Collections.singletonList(new TypeReference<Utf8String>() {})),
+      new Function(VotingContract.FUNC_STARTIMESTAMP, Collections.emptyList(), Collections.singletonList(new TypeReference<Uint256>() {})),
+      new Function(VotingContract.FUNC_VOTESUBMITENDTS, Collections.emptyList(), Collections.singletonList(new TypeReference<Uint256>() {})),
+      new Function(VotingContract.FUNC_CYCLICGROUPPRIME, Collections.emptyList(), Collections.singletonList(new TypeReference<Utf8String>() {}))
+    ), latestBlock());
+    String title = (String) results.get(0).get(0).getValue();
+    String prime = (String) results.get(3).get(0).getValue();
+    String[] primeAndThreshold = prime == null || prime.isEmpty() ? new String[0] : prime.split(PARAMETER_SEPARATOR);
+    return new ElectionParameters(title,
+      ((BigInteger) results.get(1).get(0).getValue()).longValue(),
+      ((BigInteger) results.get(2).get(0).getValue()).longValue(),
+      primeAndThreshold.length > 0 ? new BigInteger(primeAndThreshold[0]) : null,
+      primeAndThreshold.length > 1 ? Integer.parseInt(primeAndThreshold[1]) : 0);
   }
 
+  /**
+   * @return the uids of the participants. The contract never changes them, so they are read once.
+   */
   public String[] getParticipantPublicKeys() throws Exception {
-    return contract.allowedUIDs().send().split(";");
+    String[] uids = readCache.get(ROSTER, ChainReadCache.Validity.CONTRACT, () -> contract.allowedUIDs().send().split(";"));
+    return uids.clone();
+  }
+
+  /**
+   * Subscribes to the changes of the contract, see {@link ContractEventSubscription}. The cached values a change
+   * affects are dropped before the listener learns about it.
+   *
+   * @param listener called with the change and the uid it was made for on the subscription's own thread, must not
+   *                 block it for long
+   * @return the subscription, to be closed when the changes are no longer needed
+   */
+  public ContractEventSubscription subscribe(BiConsumer<ContractEvent, String> listener) throws Exception {
+    ContractEventSubscription subscription = new ContractEventSubscription(web3j, webSocketUrl, votingContractAddress, (event, uid) -> {
+      switch (event) {
+        case ELECTION_ENDED:
+        case PARAMETERS_UPDATED:
+          readCache.invalidate(null, ELECTION, VOTE_END);
+          break;
+        case MPC_SUM_SUBMITTED:
+          readCache.invalidate(null, TALLY_READY);
+          break;
+        default:
+          break; // votes are not cached
+      }
+      listener.accept(event, uid);
+    });
+    subscription.start();
+    return subscription;
+  }
+
+  /**
+   * @return the hit and miss counts of the cache of contract values
+   */
+  public ChainReadCache getReadCache() {
+    return readCache;
   }
 
   public void setupElection(Election election) throws Exception {
@@ -60,8 +164,9 @@ public class EthereumService {
         BigInteger.valueOf(election.getVotingStart()),
         BigInteger.valueOf(election.getVotingEnd()),
         election.getTitle(),
-        election.getCyclicGroupPrime().toString()
+        election.getCyclicGroupPrime() + PARAMETER_SEPARATOR + election.getThreshold()
       ).send();
+      readCache.invalidate(receipt.getBlockNumber(), ELECTION, VOTE_END);
       if (!receipt.isStatusOK()) {
         throw new Exception(String.format("Transaction status %s", receipt.getStatus()));
       }
@@ -86,6 +191,7 @@ public class EthereumService {
   public void submitMPCSum(String publicKey, String value) throws Exception {
     try {
       TransactionReceipt receipt = contract.submitMPCShareSum(publicKey, value).send();
+      readCache.invalidate(receipt.getBlockNumber(), TALLY_READY);
       if(!receipt.isStatusOK()) {
         throw new Exception("Transaction status " + receipt.getStatus());
       }
@@ -94,46 +200,164 @@ public class EthereumService {
     }
   }
 
+  /**
+   * @return whether the threshold of the election has been reached by the MPC sums of its participants, cached until
+   * the next block. The tallyVotes() of the contract waits for the sums of all participants, so it is not asked.
+   */
   public boolean tallyVotes() throws Exception {
-    return contract.tallyVotes().send();
+    return readCache.get(TALLY_READY, ChainReadCache.Validity.BLOCK, () -> {
+      Optional<Election> election = getElection();
+      if (!election.isPresent())
+        return false;
+      Set<String> participants = new HashSet<>(Arrays.asList(election.get().getAllowedVoterIds()));
+      long posted = getMPCSums().keySet().stream().filter(participants::contains).count();
+      return posted >= election.get().getThreshold();
+    });
   }
 
+  /**
+   * @return the shares for the participant, one per vote of the election's voters, read with batched calls against
+   * one block
+   * @throws IllegalStateException if the contract holds more shares than there are votes. The contract adds the
+   *                               shares of every vote, also of a second vote of the same voter or of a vote from
+   *                               outside the roster, and does not say whose shares they are, so the sum would count
+   *                               a secret twice.
+   */
   public List<String> getMPCShares(String forUid) throws Exception {
-    List<String> shares = new ArrayList<>();
-    final String[] uids = getParticipantPublicKeys();
-    for (int i = 0; i < uids.length; i++) {
-      shares.add(contract.mpcShares(forUid, BigInteger.valueOf(i)).send());
+    DefaultBlockParameter block = latestBlock();
+    int voteCount = getVotes(Arrays.asList(getParticipantPublicKeys()), block).size();
+    List<String> shares = getMPCShares(forUid, voteCount, block);
+    try {
+      batcher.call(Collections.singletonList(mpcShare(forUid, voteCount)), block);
+    } catch (ContractCallBatcher.CallFailedException e) {
+      return shares; // the votes and the shares match up
+    }
+    throw new IllegalStateException(String.format("The contract holds more shares for %s than the %d votes of the election.", forUid, voteCount));
+  }
+
+  /**
+   * @param voteCount how many shares to read, the contract keeps one per vote in the order of the votes
+   */
+  private List<String> getMPCShares(String forUid, int voteCount, DefaultBlockParameter block) throws Exception {
+    List<Function> functions = new ArrayList<>(voteCount);
+    for (int i = 0; i < voteCount; i++) {
+      functions.add(mpcShare(forUid, i));
+    }
+    List<String> shares = new ArrayList<>(voteCount);
+    for (List<Type> share : batcher.call(functions, block)) {
+      if (!((String) share.get(0).getValue()).isEmpty()) // the voter sent no share for this participant
+        shares.add((String) share.get(0).getValue());
     }
     return shares;
   }
 
+  private static Function mpcShare(String forUid, int index) {
+    return new Function(VotingContract.FUNC_MPCSHARES, Arrays.asList(new Utf8String(forUid), new Uint256(index)),
+      Collections.singletonList(new TypeReference<Utf8String>() {}));
+  }
+
+  /**
+   * @return the MPC sums posted so far by the participants, in the order of the roster, read with batched calls
+   * against one block
+   */
   public Map<String, String> getMPCSums() throws Exception {
-    Map<String, String> sums = new HashMap<>();
-    String[] uids = getParticipantPublicKeys();
-    for (String uid : uids) {
-      sums.put(uid, contract.mpcSums(uid).send());
+    String[] participants = getParticipantPublicKeys();
+    List<Function> functions = new ArrayList<>(participants.length);
+    for (String uid : participants) {
+      functions.add(new Function(VotingContract.FUNC_MPCSUMS, Collections.singletonList(new Utf8String(uid)),
+        Collections.singletonList(new TypeReference<Utf8String>() {})));
+    }
+    List<List<Type>> results = batcher.call(functions, latestBlock());
+    Map<String, String> sums = new LinkedHashMap<>();
+    for (int i = 0; i < participants.length; i++) {
+      String sum = (String) results.get(i).get(0).getValue();
+      if (!sum.isEmpty()) // has not posted yet
+        sums.put(participants[i], sum);
     }
     return sums;
   }
 
+  /**
+   * @return all votes of the election's voters, see {@link #forEachVotePage(PageConsumer)}
+   */
   public VotePayload[] getSubmittedVotes() throws Exception {
-    final String[] uids = getParticipantPublicKeys();
-    VotePayload[] votes = new VotePayload[uids.length];
-    for (int i = 0; i < uids.length; i++) {
-      final Tuple4<String, String, BigInteger, String> result = contract.votes(uids[i]).send();
-      VotePayload payload = new VotePayload(result.component1(), result.component2(), result.component4());
-      payload.submissionTimestamp = result.component3().longValue();
-      votes[i] = payload;
+    List<VotePayload> votes = new ArrayList<>();
+    forEachVotePage(votes::addAll);
+    return votes.toArray(new VotePayload[0]);
+  }
+
+  /**
+   * Reads the votes of the roster against one block and hands every page to the consumer as soon as it has been read.
+   * A page is one batch of the {@link ContractCallBatcher}, the next pages are read while the consumer is busy. The
+   * votes come in the order of the roster, voters that have not voted are left out. Votes from outside the roster are
+   * not read, the contract does not list the voters.
+   */
+  public void forEachVotePage(PageConsumer<VotePayload> consumer) throws Exception {
+    batcher.call(voteCalls(Arrays.asList(getParticipantPublicKeys())), latestBlock(), results -> consumer.accept(toVotes(results)));
+  }
+
+  /**
+   * Reads the votes of the given voters with one batched call, e.g. of the voters a {@link ContractEvent#VOTE_SUBMITTED}
+   * was seen for, instead of all votes.
+   *
+   * @return the current vote of every voter that has voted, in the order of the uids
+   */
+  public List<VotePayload> getVotes(Collection<String> uids) throws Exception {
+    return getVotes(uids, latestBlock());
+  }
+
+  private List<VotePayload> getVotes(Collection<String> uids, DefaultBlockParameter block) throws Exception {
+    return toVotes(batcher.call(voteCalls(uids), block));
+  }
+
+  private static List<Function> voteCalls(Collection<String> uids) {
+    List<Function> functions = new ArrayList<>(uids.size());
+    for (String uid : uids) {
+      functions.add(new Function(VotingContract.FUNC_VOTES, Collections.singletonList(new Utf8String(uid)), Arrays.asList(
+        new TypeReference<Utf8String>() {}, new TypeReference<Utf8String>() {}, new TypeReference<Uint256>() {}, new TypeReference<Utf8String>() {})));
+    }
+    return functions;
+  }
+
+  private static List<VotePayload> toVotes(List<List<Type>> results) {
+    List<VotePayload> votes = new ArrayList<>(results.size());
+    for (List<Type> vote : results) {
+      String uid = (String) vote.get(0).getValue();
+      if (uid.isEmpty())
+        continue; // has not voted
+      VotePayload payload = new VotePayload(uid, (String) vote.get(1).getValue(), (String) vote.get(3).getValue());
+      payload.submissionTimestamp = ((BigInteger) vote.get(2).getValue()).longValue();
+      votes.add(payload);
     }
     return votes;
   }
 
+  /**
+   * @return the current block, so that all batches of a read see the same state of the contract
+   */
+  private DefaultBlockParameter latestBlock() throws Exception {
+    return DefaultBlockParameter.valueOf(web3j.ethBlockNumber().send().getBlockNumber());
+  }
+
+  /**
+   * @return the end of the vote submission, cached until the next block
+   */
   public BigInteger getVoteEndTS() throws Exception {
-    return contract.voteSubmitEndTS().send();
+    return readCache.get(VOTE_END, ChainReadCache.Validity.BLOCK, () -> contract.voteSubmitEndTS().send());
   }
 
   public void endElection() throws Exception {
-      contract.endElection().send();
+    TransactionReceipt receipt = contract.endElection().send();
+    readCache.invalidate(receipt.getBlockNumber(), ELECTION, VOTE_END);
+  }
+
+  /**
+   * Releases the threads and connections of the batched reads and of the node client.
+   */
+  @Override
+  public void close() {
+    batcher.close();
+    web3j.shutdown();
   }
 
 }
@@ -0,0 +1,211 @@
+package edu.pentakon.votingapp;
+
+import org.bouncycastle.util.encoders.Hex;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of the deterministic RSA key pairs of {@link VotingCryptoService#generateKeyPair()}, keyed by
+ * (password, salt, group), so that logging in again or running another MPC round does not derive the key pair again.
+ * <p>
+ * Key pairs are kept in memory for the lifetime of the process. If a directory is configured with the system
+ * property {@value #DIRECTORY_PROPERTY} or {@link #setDirectory(Path)} they are also stored there, one file per
+ * entry, encrypted with AES-GCM under a key derived from the password with PBKDF2. The file name is derived in the
+ * same PBKDF2 run, so neither the name nor the content of a file can be checked against a password guess without
+ * paying for the key derivation. A file that cannot be read or decrypted is treated as a cache miss. All methods
+ * are thread-safe.
+ */
+final class KeyMaterialCache {
+
+  static final String DIRECTORY_PROPERTY = "votingapp.keyCacheDir";
+  static final int PBKDF2_ITERATIONS = 100_000;
+
+  private static final int MAX_ENTRIES = 16;
+  private static final byte VERSION = 1;
+  private static final int NONCE_LENGTH = 12;
+  private static final int TAG_BITS = 128;
+
+  private static final Logger logger = Logger.getLogger(KeyMaterialCache.class.getName());
+  private static final SecureRandom random = new SecureRandom();
+
+  private static final Map<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+  private static volatile Path directory = Optional.ofNullable(System.getProperty(DIRECTORY_PROPERTY)).map(Paths::get).orElse(null);
+
+  private KeyMaterialCache() {
+  }
+
+  /**
+   * A key pair as the strings its elements are decoded from.
+   */
+  static final class Entry {
+    final String privateKey;
+    final String publicKey;
+
+    Entry(String privateKey, String publicKey) {
+      this.privateKey = privateKey;
+      this.publicKey = publicKey;
+    }
+  }
+
+  /**
+   * Identifies the key material of one (password, salt, group). Holds the password until the disk key is derived.
+   */
+  static final class Key {
+    private final String id; // memory key, a hash of all three
+    private final String password;
+    private final byte[] salt;
+    private byte[] derived; // AES key || file name, see derive()
+
+    Key(String password, String salt, BigInteger group) {
+      this.password = password;
+      this.salt = sha256("votingapp-key-cache".getBytes(StandardCharsets.UTF_8), salt.getBytes(StandardCharsets.UTF_8), group.toByteArray());
+      this.id = Hex.toHexString(sha256(password.getBytes(StandardCharsets.UTF_8), this.salt));
+    }
+
+    private synchronized byte[] derive() throws GeneralSecurityException {
+      if (derived == null) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, PBKDF2_ITERATIONS, 512);
+        try {
+          derived = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } finally {
+          spec.clearPassword();
+        }
+      }
+      return derived;
+    }
+  }
+
+  /**
+   * Sets the directory key pairs are stored in, null to keep them in memory only.
+   */
+  static void setDirectory(Path directory) {
+    KeyMaterialCache.directory = directory;
+  }
+
+  /**
+   * Forgets the key pairs kept in memory, the ones stored on disk stay.
+   */
+  static void clear() {
+    synchronized (memory) {
+      memory.clear();
+    }
+  }
+
+  static Optional<Entry> get(Key key) {
+    synchronized (memory) {
+      Entry entry = memory.get(key.id);
+      if (entry != null)
+        return Optional.of(entry);
+    }
+    Optional<Entry> stored = read(key);
+    stored.ifPresent(entry -> {
+      synchronized (memory) {
+        memory.put(key.id, entry);
+      }
+    });
+    return stored;
+  }
+
+  static void put(Key key, Entry entry) {
+    synchronized (memory) {
+      memory.put(key.id, entry);
+    }
+    write(key, entry);
+  }
+
+  private static Optional<Entry> read(Key key) {
+    Path dir = directory;
+    if (dir == null)
+      return Optional.empty();
+    try {
+      byte[] derived = key.derive();
+      Path file = dir.resolve(fileName(derived));
+      if (!Files.isRegularFile(file))
+        return Optional.empty();
+      ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file));
+      if (content.remaining() < 1 + NONCE_LENGTH || content.get() != VERSION)
+        return Optional.empty();
+      byte[] nonce = new byte[NONCE_LENGTH];
+      content.get(nonce);
+      Cipher aes = cipher(Cipher.DECRYPT_MODE, derived, nonce);
+      String[] keys = new String(aes.doFinal(content.array(), content.position(), content.remaining()), StandardCharsets.UTF_8).split("\n");
+      return keys.length == 2 ? Optional.of(new Entry(keys[0], keys[1])) : Optional.empty();
+    } catch (IOException | GeneralSecurityException e) {
+      logger.log(Level.WARNING, "Could not read cached key pair, deriving it again", e);
+      return Optional.empty();
+    }
+  }
+
+  private static void write(Key key, Entry entry) {
+    Path dir = directory;
+    if (dir == null)
+      return;
+    try {
+      byte[] derived = key.derive();
+      byte[] nonce = new byte[NONCE_LENGTH];
+      random.nextBytes(nonce);
+      byte[] ciphertext = cipher(Cipher.ENCRYPT_MODE, derived, nonce)
+        .doFinal((entry.privateKey + "\n" + entry.publicKey).getBytes(StandardCharsets.UTF_8));
+      ByteBuffer content = ByteBuffer.allocate(1 + NONCE_LENGTH + ciphertext.length);
+      content.put(VERSION).put(nonce).put(ciphertext);
+
+      Files.createDirectories(dir);
+      Path file = dir.resolve(fileName(derived));
+      Path temporary = Files.createTempFile(dir, "key", ".tmp");
+      Files.write(temporary, content.array());
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | GeneralSecurityException e) {
+      logger.log(Level.WARNING, "Could not store key pair in " + dir, e);
+    }
+  }
+
+  private static String fileName(byte[] derived) {
+    return Hex.toHexString(Arrays.copyOfRange(derived, 32, 48)) + ".key";
+  }
+
+  private static Cipher cipher(int mode, byte[] derived, byte[] nonce) throws GeneralSecurityException {
+    Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
+    aes.init(mode, new SecretKeySpec(derived, 0, 32, "AES"), new GCMParameterSpec(TAG_BITS, nonce));
+    aes.updateAAD(new byte[]{VERSION});
+    return aes;
+  }
+
+  private static byte[] sha256(byte[]... parts) {
+    try {
+      MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+      for (byte[] part : parts) {
+        sha256.update(ByteBuffer.allocate(4).putInt(part.length).array()); // length prefixed, so parts cannot run into each other
+        sha256.update(part);
+      }
+      return sha256.digest();
+    } catch (GeneralSecurityException e) {
+      throw new RuntimeException("Java implementation is missing SHA256 algorithm. Please change to a normal implementation.");
+    }
+  }
+}
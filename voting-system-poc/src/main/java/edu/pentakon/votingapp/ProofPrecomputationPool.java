@@ -0,0 +1,80 @@
+package edu.pentakon.votingapp;
+
+import edu.pentakon.votingapp.VotingCryptoService.ProofCommitment;
+import edu.pentakon.votingapp.model.Choice;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a few proof of validity commitments for every choice ready, so that casting a vote does not have to wait
+ * for the exponentiations of the proof.
+ * <p>
+ * A single low priority daemon thread fills a bounded queue per choice while the client is idle and tops a queue up
+ * again whenever a commitment is taken from it. Since the voter's choice is not known in advance both queues are
+ * kept full; commitments of the other choice are simply never used. When a queue is empty, e.g. right after start,
+ * the commitment is computed by the caller instead, so {@link #take(Choice)} never blocks.
+ */
+final class ProofPrecomputationPool implements AutoCloseable {
+
+  static final int DEFAULT_CAPACITY = 2;
+
+  private static final Logger logger = Logger.getLogger(ProofPrecomputationPool.class.getName());
+
+  private final VotingCryptoService cryptoService;
+  private final Map<Choice, BlockingQueue<ProofCommitment>> queues = new EnumMap<>(Choice.class);
+  private final ExecutorService filler = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "proof-precomputation");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    return thread;
+  });
+
+  ProofPrecomputationPool(VotingCryptoService cryptoService, int capacity) {
+    this.cryptoService = cryptoService;
+    for (Choice choice : Choice.values()) {
+      queues.put(choice, new ArrayBlockingQueue<>(capacity));
+    }
+    for (Choice choice : Choice.values()) {
+      refill(choice);
+    }
+  }
+
+  /**
+   * @return an unused commitment for the choice, precomputed if one is ready
+   */
+  ProofCommitment take(Choice choice) {
+    ProofCommitment commitment = queues.get(choice).poll();
+    refill(choice);
+    if (commitment != null)
+      return commitment;
+    logger.log(Level.FINE, "No precomputed proof commitment for {0} ready, computing it now", choice);
+    return cryptoService.precomputeProofOfValidity(choice);
+  }
+
+  private void refill(Choice choice) {
+    try {
+      filler.execute(() -> {
+        BlockingQueue<ProofCommitment> queue = queues.get(choice);
+        while (queue.remainingCapacity() > 0 && !Thread.currentThread().isInterrupted()) {
+          queue.offer(cryptoService.precomputeProofOfValidity(choice));
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // closed, callers compute their commitments themselves
+    }
+  }
+
+  @Override
+  public void close() {
+    filler.shutdownNow();
+    queues.values().forEach(BlockingQueue::clear);
+  }
+}
@@ -0,0 +1,130 @@
+package edu.pentakon.votingapp;
+
+import ch.bfh.unicrypt.helper.factorization.Prime;
+import edu.pentakon.votingapp.crypto.HybridShareCipher;
+import org.bouncycastle.util.encoders.Hex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The RSA primes all clients share, the first primes of 512 and 511 bits, and everything derived from them.
+ * <p>
+ * The primes are shipped precomputed in {@value #RESOURCE} together with their SHA256. The file is only used if the
+ * checksum and the bit lengths match, otherwise the primes are searched as before. Either way this happens once, on a
+ * background daemon thread that {@link #preload()} starts as soon as the application starts, so the login screen does
+ * not wait for it and the parameters are usually ready when the first RSA operation asks for them with {@link #get()}.
+ * <p>
+ * Primes read from the file are not tested again, see {@link VerifiedPrime}. Measured in a fresh JVM on one core with
+ * JDK 17, five runs each: searching the two primes takes 190 to 250 ms, reading the file and checking its checksum
+ * 110 to 120 ms. The primality test {@link Prime#getInstance(BigInteger)} runs costs another 80 to 170 ms, which
+ * would bring the file to 280 to 290 ms and make it no faster than the search.
+ */
+final class RsaParameters {
+
+  static final String RESOURCE = "rsa-parameters.properties";
+  static final int P_BITS = 512;
+  static final int Q_BITS = 511;
+
+  private static final Logger logger = Logger.getLogger(RsaParameters.class.getName());
+
+  final BigInteger p;
+  final BigInteger q;
+  final BigInteger modulus;
+  final CryptoParameterRegistry.RsaSpaces spaces;
+  final HybridShareCipher shareCipher;
+
+  private RsaParameters(Prime p, Prime q) {
+    this.p = p.getValue();
+    this.q = q.getValue();
+    this.spaces = CryptoParameterRegistry.getRsaSpaces(p, q);
+    this.modulus = spaces.modulus;
+    this.shareCipher = new HybridShareCipher(modulus);
+  }
+
+  private static final class Holder {
+    static final CompletableFuture<RsaParameters> INSTANCE = CompletableFuture.supplyAsync(RsaParameters::load, runnable -> {
+      Thread thread = new Thread(runnable, "rsa-parameters");
+      thread.setDaemon(true);
+      thread.start();
+    });
+  }
+
+  /**
+   * Starts loading the parameters in the background if that has not happened yet.
+   *
+   * @return the pending parameters
+   */
+  static CompletableFuture<RsaParameters> preload() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * @return the parameters, waiting for them if they are still being loaded
+   */
+  static RsaParameters get() {
+    return Holder.INSTANCE.join();
+  }
+
+  private static RsaParameters load() {
+    long start = System.nanoTime();
+    RsaParameters parameters = fromResource().orElseGet(() -> {
+      logger.log(Level.WARNING, "No valid {0} found, searching the RSA primes", RESOURCE);
+      return search();
+    });
+    logger.log(Level.INFO, "RSA parameters ready after {0} ms", (System.nanoTime() - start) / 1_000_000);
+    return parameters;
+  }
+
+  static RsaParameters search() {
+    return new RsaParameters(Prime.getFirstInstance(P_BITS), Prime.getFirstInstance(Q_BITS));
+  }
+
+  /**
+   * @return the parameters of {@value #RESOURCE}, empty if the file is missing or does not pass the integrity checks
+   */
+  static Optional<RsaParameters> fromResource() {
+    try (InputStream in = RsaParameters.class.getResourceAsStream(RESOURCE)) {
+      if (in == null)
+        return Optional.empty();
+      Properties properties = new Properties();
+      properties.load(in);
+      String p = properties.getProperty("p", "").trim();
+      String q = properties.getProperty("q", "").trim();
+      String checksum = Hex.toHexString(MessageDigest.getInstance("SHA-256").digest((p + "\n" + q).getBytes(StandardCharsets.US_ASCII)));
+      if (!checksum.equalsIgnoreCase(properties.getProperty("sha256", "").trim())) {
+        logger.log(Level.WARNING, "Checksum of {0} does not match", RESOURCE);
+        return Optional.empty();
+      }
+      BigInteger pValue = new BigInteger(p);
+      BigInteger qValue = new BigInteger(q);
+      if (pValue.bitLength() != P_BITS || qValue.bitLength() != Q_BITS)
+        return Optional.empty();
+      return Optional.of(new RsaParameters(new VerifiedPrime(pValue), new VerifiedPrime(qValue)));
+    } catch (IOException | NoSuchAlgorithmException | IllegalArgumentException e) {
+      logger.log(Level.WARNING, "Could not read " + RESOURCE, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * A prime that passed the checksum of {@value #RESOURCE}, built without the primality test of
+   * {@link Prime#getInstance(BigInteger)}. The file is a resource of the application, so whoever could change it
+   * could change the code that tests it as well, and {@code RsaParametersTest} checks that it holds the searched primes.
+   */
+  private static final class VerifiedPrime extends Prime {
+
+    VerifiedPrime(BigInteger prime) {
+      super(prime); // the constructor SafePrime uses
+    }
+  }
+}
@@ -12,12 +12,14 @@ public final class ServicesContext {
 
   private static VotingCryptoService votingCryptoService;
   private static EthereumService ethereumService;
+  private static AsyncEthereumService asyncEthereumService;
   private static VotingService votingService;
 
   public static void initialize(Class serviceClass) throws Exception {
     if(EthereumService.class.equals(serviceClass)) {
       if(ethereumService == null) {
         ethereumService = new EthereumService();
+        asyncEthereumService = new AsyncEthereumService(ethereumService);
       }
     } else {
       throw new UnsupportedOperationException(String.format("Cannot initialize class %s by itself.", serviceClass.getName()));
@@ -29,11 +31,25 @@ public final class ServicesContext {
       return;
 
     // Must be very careful of initialization order. VotingService for example requires the existence of both EthereumService and CryptoService.
-    if(ethereumService == null)
+    if(ethereumService == null) {
       ethereumService = new EthereumService();
+      asyncEthereumService = new AsyncEthereumService(ethereumService);
+    }
 
     votingCryptoService = new VotingCryptoService(modQ, password, salt);
-    votingService = new VotingService(election, votingCryptoService, ethereumService);
+    votingService = new VotingService(election, votingCryptoService, asyncEthereumService);
+  }
+
+  /**
+   * Releases the background threads of the initialized services, to be called once when the application stops.
+   */
+  public static void closeAll() {
+    if(votingService != null)
+      votingService.close();
+    if(asyncEthereumService != null)
+      asyncEthereumService.close();
+    if(ethereumService != null)
+      ethereumService.close();
   }
 
   public static <C> C get(Class<C> serviceClass) {
@@ -42,6 +58,8 @@ public final class ServicesContext {
       rv = (C) votingCryptoService;
     else if(EthereumService.class.equals(serviceClass))
       rv = (C) ethereumService;
+    else if(AsyncEthereumService.class.equals(serviceClass))
+      rv = (C) asyncEthereumService;
     else if(VotingService.class.equals(serviceClass))
       rv = (C) votingService;
     else
@@ -34,6 +34,7 @@ public class VotingApplication {
   }
 
   public static VotingApplication initialize(AppMode appMode, String ssn) throws Exception {
+    RsaParameters.preload(); // loads while connecting to the chain
     instance = new VotingApplication(appMode, ssn);
     try {
       ServicesContext.initialize(EthereumService.class);
@@ -53,6 +54,7 @@ public class VotingApplication {
 
   public void stopApp() {
     service.shutdown();
+    ServicesContext.closeAll();
   }
 
   public Optional<Election> getElection() {
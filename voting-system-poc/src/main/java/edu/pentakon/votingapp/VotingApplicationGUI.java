@@ -19,6 +19,7 @@ public class VotingApplicationGUI extends Application {
 
   @Override
   public void start(Stage primaryStage) throws Exception {
+    RsaParameters.preload(); // ready by the time the voter has logged in
     Thread.setDefaultUncaughtExceptionHandler((thread, throwable) -> {
       if(Platform.isFxApplicationThread())
         new ExceptionDialogController(throwable);
@@ -1,71 +1,119 @@
 package edu.pentakon.votingapp;
 
-import ch.bfh.unicrypt.crypto.schemes.encryption.classes.RSAEncryptionScheme;
 import ch.bfh.unicrypt.crypto.schemes.encryption.interfaces.AsymmetricEncryptionScheme;
-import ch.bfh.unicrypt.crypto.schemes.sharing.classes.ShamirSecretSharingScheme;
 import ch.bfh.unicrypt.crypto.schemes.sharing.interfaces.SecretSharingScheme;
 import ch.bfh.unicrypt.helper.array.classes.ByteArray;
-import ch.bfh.unicrypt.helper.factorization.Prime;
 import ch.bfh.unicrypt.helper.factorization.SafePrime;
 import ch.bfh.unicrypt.helper.hash.HashAlgorithm;
+import ch.bfh.unicrypt.math.algebra.dualistic.classes.ZMod;
+import ch.bfh.unicrypt.math.algebra.dualistic.classes.ZModElement;
 import ch.bfh.unicrypt.math.algebra.dualistic.classes.ZModPrime;
-import ch.bfh.unicrypt.math.algebra.dualistic.classes.ZModPrimePair;
 import ch.bfh.unicrypt.math.algebra.general.classes.Pair;
 import ch.bfh.unicrypt.math.algebra.general.classes.Tuple;
 import ch.bfh.unicrypt.math.algebra.general.interfaces.Element;
 import ch.bfh.unicrypt.math.algebra.multiplicative.classes.GStarModElement;
 import ch.bfh.unicrypt.math.algebra.multiplicative.classes.GStarModPrime;
-import ch.bfh.unicrypt.math.algebra.multiplicative.classes.GStarModSafePrime;
+import edu.pentakon.votingapp.crypto.DiscreteLogSolver;
+import edu.pentakon.votingapp.crypto.FixedBaseExponentiator;
+import edu.pentakon.votingapp.crypto.GroupArithmetic;
+import edu.pentakon.votingapp.crypto.HybridShareCipher;
+import edu.pentakon.votingapp.crypto.LagrangeInterpolator;
+import edu.pentakon.votingapp.crypto.NIProofBatchVerifier;
+import edu.pentakon.votingapp.crypto.RsaCrtKey;
+import edu.pentakon.votingapp.crypto.SubgroupMembership;
+import edu.pentakon.votingapp.crypto.TallyAccumulator;
+import edu.pentakon.votingapp.model.BallotCodec;
 import edu.pentakon.votingapp.model.Choice;
 import edu.pentakon.votingapp.model.KeyPair;
 import edu.pentakon.votingapp.model.NIProof;
 import org.bouncycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-
+import java.util.stream.IntStream;
+
+/**
+ * Cryptographic operations of one voter in one election.
+ * <p>
+ * The service is thread-safe without any locking: all of its state is immutable once the constructor returns,
+ * the Fiat-Shamir digests are per thread and the proof randomness comes from a thread-safe {@link SecureRandom},
+ * so ballots can be prepared and verified by any number of worker threads at once.
+ */
 public final class VotingCryptoService {
-  private Logger logger = Logger.getLogger(VotingCryptoService.class.getName());
+  private final Logger logger = Logger.getLogger(VotingCryptoService.class.getName());
+
+  private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(VotingCryptoService::newSHA256);
+  private static final SecureRandom random = new SecureRandom();
 
-  private final MessageDigest SHA256;
   private final String keyPairSeed;
+  private final KeyMaterialCache.Key keyMaterialKey;
   private final ByteArray votingSecret;
+  private final BigInteger secretExponent;
+  private final BigInteger h; // g^s
+  private final GStarModElement y_YES; // h * G
+  private final GStarModElement y_NO; // h / G
+  private final BigInteger y_YES_times_G;
+  private final BigInteger y_NO_div_G;
   private final GStarModPrime cyclicGroup;
   private final GStarModElement generator_g;
   private final GStarModElement generator_G;
+  private final GroupArithmetic arithmetic;
+  private final FixedBaseExponentiator table_g;
+  private final FixedBaseExponentiator table_G;
+  private final NIProofBatchVerifier batchVerifier;
+  private final SubgroupMembership membership;
+  private final BallotCodec ballotCodec;
+  private volatile KeyPair keyPair; // derived on first use, see generateKeyPair()
 
-  private static final AsymmetricEncryptionScheme RSA;
-  static {
-    ZModPrimePair zMod = ZModPrimePair.getInstance(Prime.getFirstInstance(512), Prime.getFirstInstance(511));
-//    ZModPrimePair zMod = ZModPrimePair.getInstance(Prime.getRandomInstance(32), Prime.getRandomInstance(31));
-    RSA = RSAEncryptionScheme.getInstance(zMod);
-  }
+  static final String SIGNATURE_PREFIX = "fdh:";
+  static final String SHARE_PREFIX = "kem:";
 
   public VotingCryptoService(SafePrime modQ, String password, String salt) {
     logger.log(Level.INFO, "Initializing crypto service with secret {0}, salt {1}, prime {2}", new Object[]{password, salt, modQ.toString()});
-    cyclicGroup = GStarModSafePrime.getInstance(modQ);
-    generator_g = cyclicGroup.getIndependentGenerator(0);
-    generator_G = cyclicGroup.getIndependentGenerator(1);
+    CryptoParameterRegistry.Group group = CryptoParameterRegistry.getGroup(modQ);
+    cyclicGroup = group.group;
+    generator_g = group.g;
+    generator_G = group.G;
     logger.log(Level.INFO, "Generator G: {0}, g: {1}", new Object[]{generator_G.toString(), generator_g.toString()});
 
     if (generator_G.equals(generator_g)) {
       throw new RuntimeException(String.format("Provided modQ group %s does not have 2 distinct generators.", modQ.toString()));
     }
+    arithmetic = GroupArithmetic.getInstance(cyclicGroup.getModulus(), cyclicGroup.getOrder());
+    table_g = FixedBaseExponentiator.getInstance(cyclicGroup.getModulus(), cyclicGroup.getOrder(), generator_g.getValue());
+    table_G = FixedBaseExponentiator.getInstance(cyclicGroup.getModulus(), cyclicGroup.getOrder(), generator_G.getValue());
+    batchVerifier = new NIProofBatchVerifier(arithmetic, table_g, table_G);
+    membership = SubgroupMembership.getInstance(cyclicGroup.getModulus(), cyclicGroup.getOrder());
+    ballotCodec = new BallotCodec(cyclicGroup.getModulus(), cyclicGroup.getOrder());
 
+    votingSecret = generateSecret(password, salt);
+    secretExponent = cyclicGroup.getElementFrom(votingSecret).convertToBigInteger();
+    h = table_g.power(secretExponent);
+    final BigInteger G = generator_G.getValue();
+    y_YES = cyclicGroup.getElement(arithmetic.multiply(h, G));
+    y_NO = cyclicGroup.getElement(arithmetic.divide(h, G));
+    y_YES_times_G = arithmetic.multiply(y_YES.getValue(), G);
+    y_NO_div_G = arithmetic.divide(y_NO.getValue(), G);
+    keyPairSeed = new String(HashAlgorithm.SHA256.getHashValue(password.getBytes()));
+    keyMaterialKey = new KeyMaterialCache.Key(password, salt, cyclicGroup.getModulus());
+    logger.log(Level.INFO, "Generated secret: " + votingSecret.toString());
+  }
+
+  private static MessageDigest newSHA256() {
     try {
-      SHA256 = MessageDigest.getInstance("SHA-256");
+      return MessageDigest.getInstance("SHA-256");
     } catch (NoSuchAlgorithmException e) {
       throw new RuntimeException("Java implementation is missing SHA256 algorithm. Please change to a normal implementation.");
     }
-
-    votingSecret = generateSecret(password, salt);
-    keyPairSeed = new String(HashAlgorithm.SHA256.getHashValue(password.getBytes()));
-    logger.log(Level.INFO, "Generated secret: " + votingSecret.toString());
   }
 
   /**
@@ -87,48 +135,122 @@ public final class VotingCryptoService {
     logger.log(Level.INFO, "Seed hash " + Hex.toHexString(hash));
     final BigInteger secretInt = new BigInteger(hash).mod(cyclicGroup.getModulus()); // arbitrary secret must be transformed to one of the group's elements
     logger.log(Level.INFO, "Secret integer " + secretInt.toString());
-    return generator_g.power(generator_g.power(secretInt)).convertToByteArray();
+    return power_g(power_g(secretInt).convertToBigInteger()).convertToByteArray();
+  }
+
+  /**
+   * g^exponent through the precomputed fixed-base table of generator_g.
+   */
+  private GStarModElement power_g(BigInteger exponent) {
+    return cyclicGroup.getElement(table_g.power(exponent));
+  }
+
+  /**
+   * @return the shared RSA parameters, waiting for them if they are still being loaded, see {@link RsaParameters}
+   */
+  private static RsaParameters rsaParameters() {
+    return RsaParameters.get();
   }
 
   private AsymmetricEncryptionScheme getRSAScheme() {
-    return RSA;
+    return rsaParameters().spaces.scheme;
   }
 
   /**
    * Generates a deterministic public/private key pair based on the provided password.
    * This Pub/Priv pair is to be used as the user identifier as well as for payload signatures.
    *
+   * The key generation only runs once, later calls return the same key pair. Pairs are also kept in the
+   * {@link KeyMaterialCache}, so another service for the same password, salt and group, e.g. after logging in again,
+   * decodes the pair from there instead of generating it.
+   *
    * @return the generated keypair object that contains the private and public keys
    */
   public KeyPair generateKeyPair() {
-    AsymmetricEncryptionScheme rsa = getRSAScheme();
-    // provide seed for deterministic signature generation for the cyclicGroup
-    Pair keyPair = rsa.getKeyPairGenerator().generateKeyPair(keyPairSeed);
-    // Can recreate the private and public keys by providing the "convertToString" values of these elements.
-    Element privateKey = keyPair.getFirst();
-    Element publicKey = keyPair.getSecond();
-    return new KeyPair(privateKey, publicKey);
+    KeyPair result = keyPair;
+    if (result == null) { // deterministic, so threads racing here all derive the same pair
+      CryptoParameterRegistry.RsaSpaces spaces = rsaParameters().spaces;
+      Optional<KeyMaterialCache.Entry> cached = KeyMaterialCache.get(keyMaterialKey);
+      if (cached.isPresent()) {
+        result = new KeyPair(spaces.privateKeySpace.getElementFrom(cached.get().privateKey),
+          spaces.publicKeySpace.getElementFrom(cached.get().publicKey));
+      } else {
+        // provide seed for deterministic signature generation for the cyclicGroup
+        Pair pair = spaces.scheme.getKeyPairGenerator().generateKeyPair(keyPairSeed);
+        // Can recreate the private and public keys by providing the "convertToString" values of these elements.
+        Element privateKey = pair.getFirst();
+        Element publicKey = pair.getSecond();
+        result = new KeyPair(privateKey, publicKey);
+        KeyMaterialCache.put(keyMaterialKey, new KeyMaterialCache.Entry(privateKey.convertToString(), publicKey.convertToString()));
+      }
+      keyPair = result;
+    }
+    return result;
   }
 
+  /**
+   * @return the private key in CRT form, for private key operations that are about three times faster
+   */
+  private static RsaCrtKey toCrtKey(Element privateKey) {
+    RsaParameters rsa = rsaParameters();
+    return new RsaCrtKey(rsa.p, rsa.q, ((ZModElement) privateKey).getValue());
+  }
+
+  /**
+   * Signs the message hash-then-sign: the message is hashed once to a full domain hash in Z_n and the hash is signed
+   * with a single private key operation. Cost and size of the signature do not depend on the length of the message;
+   * the signature is encoded as {@value #SIGNATURE_PREFIX} followed by the Base64 of its fixed size big-endian bytes.
+   */
   public String signMessage(String message, Element privateKey) {
+    BigInteger signature = toCrtKey(privateKey).power(fullDomainHash(message.getBytes(StandardCharsets.UTF_8)));
+    return SIGNATURE_PREFIX + Base64.getEncoder().encodeToString(toFixedLength(signature, (rsaParameters().modulus.bitLength() + 7) / 8));
+  }
+
+  /**
+   * Signs the message the way earlier versions did, with one RSA operation per 100 character chunk.
+   *
+   * @deprecated use {@link #signMessage(String, Element)}, kept so that the old format can still be produced in tests
+   */
+  @Deprecated
+  public String signMessageChunked(String message, Element privateKey) {
     // TODO could change this to use the RSA pub key as a password to generate Schnorr signature
     AsymmetricEncryptionScheme rsa = getRSAScheme();
     String[] encryptedChunks = new String[(int) Math.ceil(message.length() / (float) 100)];
     for (int i = 0; i < encryptedChunks.length; i++) {
       String chunk = message.substring(100 * i, Math.min(i * 100 + 99, message.length()));
-      Element msg = rsa.getMessageSpace().getElementFrom(ByteArray.getInstance(chunk.getBytes()));
+      Element msg = rsaParameters().spaces.messageSpace.getElementFrom(ByteArray.getInstance(chunk.getBytes()));
       encryptedChunks[i] = rsa.encrypt(privateKey, msg).convertToString();
     }
     return String.join("|", encryptedChunks);
   }
 
+  /**
+   * Verifies signatures of both {@link #signMessage(String, Element)} and the chunked format of earlier versions.
+   */
   public boolean verifySignature(String message, String msgSignature, String publicKey) {
+    if (!msgSignature.startsWith(SIGNATURE_PREFIX))
+      return verifyChunkedSignature(message, msgSignature, publicKey);
+    AsymmetricEncryptionScheme rsa = getRSAScheme();
+    Element pubKeyEl = rsaParameters().spaces.decryptionKeySpace.getElementFrom(publicKey);
+    final BigInteger signature;
+    try {
+      signature = new BigInteger(1, Base64.getDecoder().decode(msgSignature.substring(SIGNATURE_PREFIX.length())));
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    if (signature.compareTo(rsaParameters().modulus) >= 0)
+      return false;
+    Element hash = rsa.decrypt(pubKeyEl, rsaParameters().spaces.encryptionSpace.getElementFrom(signature));
+    return hash.convertToBigInteger().equals(fullDomainHash(message.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private boolean verifyChunkedSignature(String message, String msgSignature, String publicKey) {
     String[] encryptedChunks = msgSignature.split("\\|");
     AsymmetricEncryptionScheme rsa = getRSAScheme();
-    Element pubKeyEl = rsa.getDecryptionKeySpace().getElementFrom(publicKey);
+    Element pubKeyEl = rsaParameters().spaces.decryptionKeySpace.getElementFrom(publicKey);
     StringBuilder decryptedMsg = new StringBuilder();
     for (String chunk : encryptedChunks) {
-      Element msg = rsa.getEncryptionSpace().getElementFrom(chunk);
+      Element msg = rsaParameters().spaces.encryptionSpace.getElementFrom(chunk);
       Element verification = rsa.decrypt(pubKeyEl, msg);
       decryptedMsg.append(verification.convertToString());
     }
@@ -136,22 +258,49 @@ public final class VotingCryptoService {
     String[] verificationChunks = new String[(int) Math.ceil(message.length() / (float) 100)];
     for (int i = 0; i < verificationChunks.length; i++) {
       String chunk = message.substring(100 * i, Math.min(i * 100 + 99, message.length()));
-      Element msg = rsa.getMessageSpace().getElementFrom(ByteArray.getInstance(chunk.getBytes()));
+      Element msg = rsaParameters().spaces.messageSpace.getElementFrom(ByteArray.getInstance(chunk.getBytes()));
       encryptedChunks[i] = msg.convertToString();
     }
     message = String.join("", encryptedChunks);
     return message.equals(decryptedMsg.toString());
   }
 
-  public BigInteger getCombinedKey(Collection<BigInteger> keys) {
-    Element result = null;
-    for (BigInteger key : keys) {
-      if (result == null)
-        result = cyclicGroup.getElementFrom(key);
-      else
-        result = result.apply(cyclicGroup.getElementFrom(key));
+  /**
+   * Full domain hash of a message: SHA256 of the message expanded with MGF1 (SHA256) to one bit less than the RSA
+   * modulus, so that the result is always an element of Z_n.
+   */
+  private static BigInteger fullDomainHash(byte[] message) {
+    MessageDigest sha256 = SHA256.get();
+    byte[] seed = sha256.digest(message);
+    int bits = rsaParameters().modulus.bitLength() - 1;
+    byte[] mask = new byte[(bits + 7) / 8];
+    for (int counter = 0, offset = 0; offset < mask.length; counter++) {
+      sha256.update(seed);
+      sha256.update(new byte[]{(byte) (counter >>> 24), (byte) (counter >>> 16), (byte) (counter >>> 8), (byte) counter});
+      byte[] block = sha256.digest();
+      int length = Math.min(block.length, mask.length - offset);
+      System.arraycopy(block, 0, mask, offset, length);
+      offset += length;
     }
-    return result.convertToBigInteger();
+    return new BigInteger(1, mask).shiftRight(mask.length * 8 - bits);
+  }
+
+  /**
+   * @return the unsigned big-endian bytes of value, left padded with zeros to the given length
+   */
+  private static byte[] toFixedLength(BigInteger value, int length) {
+    byte[] bytes = value.toByteArray();
+    byte[] result = new byte[length];
+    int copied = Math.min(bytes.length, length); // drops the sign byte of values with the top bit set
+    System.arraycopy(bytes, bytes.length - copied, result, length - copied, copied);
+    return result;
+  }
+
+  /**
+   * Multiplies the public keys of the participants, checking them for group membership as one batch.
+   */
+  public BigInteger getCombinedKey(Collection<BigInteger> keys) {
+    return arithmetic.product(decodeAll(keys.toArray(new BigInteger[0]), "Public key"));
   }
 
   public BigInteger encryptChoice(Choice choice) {
@@ -167,128 +316,261 @@ public final class VotingCryptoService {
    * @return
    */
   public BigInteger encryptChoice(int choice) {
-    Element h = generator_g.power(cyclicGroup.getElementFrom(votingSecret));
-    Element vote = h.apply(generator_G.power(choice));
-    return vote.convertToBigInteger();
+    BigInteger vote = arithmetic.multiply(h, table_G.power(choice));
+    return cyclicGroup.getElement(vote).convertToBigInteger();
   }
 
-  public BigInteger tallyVotes(Set<BigInteger> votes) {
+  /**
+   * Multiplies all the encrypted votes together. Every vote counts, also ciphertexts that occur more than once.
+   */
+  public BigInteger tallyVotes(Collection<BigInteger> votes) {
     if (votes.size() == 0) {
       return BigInteger.ZERO;
     }
-    Set<Element> elVotes = votes.stream().map(cyclicGroup::getElementFrom).collect(Collectors.toSet());
-    Element tally = null;
-    for (Element vote : elVotes) {
-      if (tally == null)
-        tally = vote;
-      else
-        tally = tally.apply(vote);
+    TallyAccumulator accumulator = newTallyAccumulator();
+    accumulator.addAll(decodeAll(votes.toArray(new BigInteger[0]), "Encrypted vote"));
+    return tallyVotes(accumulator.checkpoint());
+  }
+
+  public BigInteger tallyVotes(TallyAccumulator.Checkpoint checkpoint) {
+    return cyclicGroup.getElement(checkpoint.product).convertToBigInteger();
+  }
+
+  public TallyAccumulator newTallyAccumulator() {
+    return new TallyAccumulator(arithmetic);
+  }
+
+  /**
+   * Decodes an encrypted vote for a {@link TallyAccumulator}, checking that it is a member of the group.
+   *
+   * @return the vote as a residue mod p
+   */
+  public BigInteger decodeVote(BigInteger vote) {
+    if (!membership.contains(vote))
+      throw new IllegalArgumentException("Encrypted vote is not a member of the group.");
+    return vote;
+  }
+
+  /**
+   * Decodes many encrypted votes at once, checking their group membership as one batch with
+   * {@link SubgroupMembership}, which is considerably cheaper than calling {@link #decodeVote(BigInteger)} for each.
+   *
+   * @return the votes as residues mod p in the same order, null for the ones that are not members of the group
+   */
+  public BigInteger[] decodeVotes(BigInteger[] votes) {
+    boolean[] members = membership.containsAll(votes);
+    BigInteger[] decoded = new BigInteger[votes.length];
+    for (int i = 0; i < votes.length; i++) {
+      if (members[i])
+        decoded[i] = votes[i];
     }
-    return tally.convertToBigInteger();
+    return decoded;
   }
 
+  private BigInteger[] decodeAll(BigInteger[] values, String what) {
+    BigInteger[] decoded = decodeVotes(values);
+    for (BigInteger value : decoded) {
+      if (value == null)
+        throw new IllegalArgumentException(what + " is not a member of the group.");
+    }
+    return decoded;
+  }
+
+  /**
+   * Removes the overkey from the tally and finds the sum of the votes, i.e. the exponent of G, with a
+   * baby-step giant-step search over [-voterCount, voterCount]. The tally is trusted, it must be a product of
+   * decoded votes such as the result of {@link #tallyVotes(Collection)}, and is not checked for membership again.
+   */
   public long decryptTally(BigInteger tally, BigInteger overkey, long voterCount) {
-    Element tallyEl = cyclicGroup.getElementFrom(tally);
-    Element decrypted = generator_g.selfApply(overkey).invert().multiply(tallyEl);
-    long result = 0;
-    for (long i = -5; i <= voterCount; i++) {
-      if (decrypted.equals(generator_G.selfApply(i))) {
-        result = i;
-        break;
-      }
+    BigInteger decrypted = arithmetic.multiply(table_g.power(overkey.negate()), tally);
+    DiscreteLogSolver solver = DiscreteLogSolver.getInstance(cyclicGroup.getModulus(), generator_G.getValue(), 2 * voterCount + 1);
+    return solver.solve(decrypted, -voterCount, voterCount)
+      .orElseThrow(() -> new IllegalStateException(String.format("Decrypted tally is not within [-%d, %d].", voterCount, voterCount)));
+  }
+
+  /**
+   * The secret randomness and the commitments of a proof of validity, computed ahead of the challenge by
+   * {@link #precomputeProofOfValidity(Choice)}. A commitment can complete exactly one proof.
+   */
+  public static final class ProofCommitment {
+    private final Choice choice;
+    private final BigInteger w;
+    private final BigInteger r; // r1 for YES, r2 for NO
+    private final BigInteger d; // d1 for YES, d2 for NO
+    private final GStarModElement b1;
+    private final GStarModElement b2;
+    private final AtomicBoolean used = new AtomicBoolean();
+
+    private ProofCommitment(Choice choice, BigInteger w, BigInteger r, BigInteger d, GStarModElement b1, GStarModElement b2) {
+      this.choice = choice;
+      this.w = w;
+      this.r = r;
+      this.d = d;
+      this.b1 = b1;
+      this.b2 = b2;
+    }
+
+    public Choice getChoice() {
+      return choice;
     }
-    return result;
   }
 
   public NIProof createProofOfValidityYES(Element publicKey) {
-    final long w = cyclicGroup.getRandomElement().getValue().longValueExact();
-    final long r1 = cyclicGroup.getRandomElement().getValue().longValueExact();
-    final long d1 = cyclicGroup.getRandomElement().getValue().longValueExact();
-
-    final GStarModElement secretEl = cyclicGroup.getElementFrom(votingSecret);
-    final GStarModElement h = generator_g.power(secretEl); // g^s
-    final GStarModElement G_exp_v = generator_G.power(1); // G^v
-    final GStarModElement y = h.multiply(G_exp_v);
-
-    final GStarModElement g_exp_r1 = generator_g.power(r1); // g^r1
-    final GStarModElement y_times_G_exp_d1 = y.multiply(generator_G).power(d1); // (y*G)^d1
-    final GStarModElement b1 = g_exp_r1.multiply(y_times_G_exp_d1); // g^r1 * (y * G)^d1
-    final GStarModElement b2 = generator_g.power(w); // g^w
-
-    // c = SHA256(PubKey, y, b1, b2)
-    SHA256.update(publicKey.convertToString().getBytes());
-    SHA256.update(y.convertToByteArray().getBytes());
-    SHA256.update(b1.convertToByteArray().getBytes());
-    SHA256.update(b2.convertToByteArray().getBytes());
-    final BigInteger c = new BigInteger(SHA256.digest()).abs().mod(cyclicGroup.getModulus());
-
-    final BigInteger d2 = c.subtract(BigInteger.valueOf(d1)); // not part of the Group, no modp needed
-    final BigInteger r2 = BigInteger.valueOf(w).subtract(secretEl.convertToBigInteger().multiply(d2)); // not part of the Group, no modp needed
-
-    return new NIProof()
-      .setY(y.convertToString())
-      .setB1(b1.convertToString())
-      .setB2(b2.convertToString())
-      .setC(c.toString())
-      .setR1(r1 + "")
-      .setR2(r2.toString())
-      .setD1(d1 + "")
-      .setD2(d2.toString());
+    return createProofOfValidity(publicKey, precomputeProofOfValidity(Choice.YES));
   }
 
   public NIProof createProofOfValidityNO(Element publicKey) {
-    final long w = cyclicGroup.getRandomElement().getValue().longValueExact();
-    final long r2 = cyclicGroup.getRandomElement().getValue().longValueExact();
-    final long d2 = cyclicGroup.getRandomElement().getValue().longValueExact();
-
-    final GStarModElement secretEl = cyclicGroup.getElementFrom(votingSecret);
-    final GStarModElement h = generator_g.power(secretEl); // g^s
-    final GStarModElement G_exp_v = generator_G.invert(); // G^v
-    final GStarModElement y = h.multiply(G_exp_v);
-
-    final GStarModElement g_exp_r2 = generator_g.power(r2); // g^r2
-    final GStarModElement y_div_G_exp_d2 = y.divide(generator_G).power(d2); // (y/G)^d2
-    final GStarModElement b1 = generator_g.power(w); // g^w
-    final GStarModElement b2 = g_exp_r2.multiply(y_div_G_exp_d2); // g^r2 * (y/G)^d2
-
-    // c = SHA256(PubKey, y, b1, b2)
-    SHA256.update(publicKey.convertToString().getBytes());
-    SHA256.update(y.convertToByteArray().getBytes());
-    SHA256.update(b1.convertToByteArray().getBytes());
-    SHA256.update(b2.convertToByteArray().getBytes());
-    final BigInteger c = new BigInteger(SHA256.digest()).abs().mod(cyclicGroup.getModulus());
-
-    final BigInteger d1 = c.subtract(BigInteger.valueOf(d2)); // not part of the Group, no modp needed
-    final BigInteger r1 = BigInteger.valueOf(w).subtract(secretEl.convertToBigInteger().multiply(d1)); // not part of the Group, no modp needed
-
-    return new NIProof()
+    return createProofOfValidity(publicKey, precomputeProofOfValidity(Choice.NO));
+  }
+
+  /**
+   * Computes the offline part of a proof of validity for the given choice: the random values and the commitments
+   * b1 and b2, which is all of the exponentiation work. Only the challenge is left for
+   * {@link #createProofOfValidity(Element, ProofCommitment)}, so commitments can be prepared in the background
+   * before the voter has made a choice.
+   */
+  public ProofCommitment precomputeProofOfValidity(Choice choice) {
+    final BigInteger w = randomExponent();
+    final BigInteger r = randomExponent();
+    final BigInteger d = randomExponent();
+    final GStarModElement g_exp_w = power_g(w); // g^w
+    if (choice == Choice.YES) {
+      final GStarModElement b1 = cyclicGroup.getElement(batchVerifier.commitment(r, y_YES_times_G, d)); // g^r1 * (y * G)^d1
+      return new ProofCommitment(choice, w, r, d, b1, g_exp_w);
+    }
+    final GStarModElement b2 = cyclicGroup.getElement(batchVerifier.commitment(r, y_NO_div_G, d)); // g^r2 * (y/G)^d2
+    return new ProofCommitment(choice, w, r, d, g_exp_w, b2);
+  }
+
+  /**
+   * Completes a proof of validity from a precomputed commitment, which only costs the hash of the challenge.
+   *
+   * @throws IllegalStateException if the commitment has already been used, a second proof with the same
+   *                               randomness would reveal the voting secret
+   */
+  public NIProof createProofOfValidity(Element publicKey, ProofCommitment commitment) {
+    if (!commitment.used.compareAndSet(false, true))
+      throw new IllegalStateException("Proof commitments must not be used more than once.");
+    final GStarModElement y = commitment.choice == Choice.YES ? y_YES : y_NO;
+    final BigInteger c = batchVerifier.challenge(publicKey.convertToString(), y.getValue(), commitment.b1.getValue(), commitment.b2.getValue());
+
+    // the simulated half of the proof gets the remaining challenge
+    final BigInteger d = c.subtract(commitment.d); // not part of the Group, no modp needed
+    final BigInteger r = commitment.w.subtract(secretExponent.multiply(d)); // not part of the Group, no modp needed
+
+    final NIProof proof = new NIProof()
       .setY(y.convertToString())
-      .setB1(b1.convertToString())
-      .setB2(b2.convertToString())
-      .setC(c.toString())
-      .setR1(r1.toString())
-      .setR2(r2 + "")
-      .setD1(d1.toString())
-      .setD2(d2 + "");
+      .setB1(commitment.b1.convertToString())
+      .setB2(commitment.b2.convertToString())
+      .setC(c.toString());
+    return commitment.choice == Choice.YES
+      ? proof.setR1(commitment.r.toString()).setR2(r.toString()).setD1(commitment.d.toString()).setD2(d.toString())
+      : proof.setR1(r.toString()).setR2(commitment.r.toString()).setD1(d.toString()).setD2(commitment.d.toString());
+  }
+
+  /**
+   * @return a uniformly random exponent in [0, q)
+   */
+  private BigInteger randomExponent() {
+    BigInteger order = cyclicGroup.getOrder();
+    BigInteger value;
+    do {
+      value = new BigInteger(order.bitLength(), random);
+    } while (value.compareTo(order) >= 0);
+    return value;
+  }
+
+  /**
+   * Recomputes the challenge of an existing proof from its y, b1 and b2, see {@link NIProofBatchVerifier#challenge}.
+   */
+  BigInteger challenge(Element publicKey, NIProof proof) {
+    NIProofBatchVerifier.Statement statement = proof.toStatement(cyclicGroup, publicKey.convertToString());
+    return batchVerifier.challenge(publicKey.convertToString(), statement.getY(), statement.getB1(), statement.getB2());
+  }
+
+  /**
+   * @return the codec ballots of this group are sent in
+   */
+  public BallotCodec getBallotCodec() {
+    return ballotCodec;
+  }
+
+  /**
+   * @param publicKey the public key of the voter, i.e. the uid the proof was submitted with
+   */
+  public boolean verifyProof(NIProof proof, String publicKey) {
+    return proof.verify(cyclicGroup, batchVerifier, publicKey);
   }
 
-  public boolean verifyProof(NIProof proof) {
-    return proof.verify(cyclicGroup, generator_g, generator_G);
+  /**
+   * Verifies all the proofs together with {@link NIProofBatchVerifier}, which is considerably cheaper than calling
+   * {@link #verifyProof(NIProof, String)} for each one. The y, b1 and b2 values of all the proofs are checked for group
+   * membership as one batch with {@link SubgroupMembership}.
+   *
+   * @param proofs     the proofs to verify, null entries are treated as invalid
+   * @param publicKeys the public keys of the voters, in the same order as the proofs
+   * @return for every proof whether it is valid, in the same order
+   */
+  public boolean[] verifyProofs(NIProof[] proofs, String[] publicKeys) {
+    NIProofBatchVerifier.Statement[] statements = new NIProofBatchVerifier.Statement[proofs.length];
+    BigInteger[] elements = new BigInteger[3 * proofs.length]; // y, b1 and b2 of every proof
+    for (int i = 0; i < proofs.length; i++) {
+      if (proofs[i] == null)
+        continue;
+      try {
+        statements[i] = proofs[i].toStatement(publicKeys[i]);
+        elements[3 * i] = statements[i].getY();
+        elements[3 * i + 1] = statements[i].getB1();
+        elements[3 * i + 2] = statements[i].getB2();
+      } catch (RuntimeException e) {
+        // malformed number, the proof is invalid
+        logger.log(Level.WARNING, "Could not decode proof: " + e.getMessage());
+      }
+    }
+    boolean[] members = membership.containsAll(elements);
+    for (int i = 0; i < proofs.length; i++) {
+      if (!members[3 * i] || !members[3 * i + 1] || !members[3 * i + 2])
+        statements[i] = null; // not members of the group, the proof is invalid
+    }
+    return batchVerifier.verify(statements);
   }
 
+  /**
+   * @param threshold how many of the shares are needed to recover the secret
+   */
   private SecretSharingScheme getSharingScheme(int size, int threshold) {
-    ZModPrime z = ZModPrime.getFirstInstance(60);
-    SecretSharingScheme sss = ShamirSecretSharingScheme.getInstance(z, size, threshold);
-    return sss;
+    return CryptoParameterRegistry.getSharingScheme(size, threshold);
   }
 
   public Map<String, String> generateSecretKeyShares(String[] recipientPublicKeys) {
-    Element[] keyEls = new Element[recipientPublicKeys.length];
-    AsymmetricEncryptionScheme rsa = getRSAScheme();
-    for (int i = 0; i < recipientPublicKeys.length; i++) {
-      keyEls[i] = rsa.getKeyPairGenerator().getPublicKeySpace().getElementFrom(recipientPublicKeys[i]);
-    }
-    Map<Element, Element> shares = generateSecretKeyShares(keyEls);
+    return generateSecretKeyShares(recipientPublicKeys, recipientPublicKeys.length);
+  }
+
+  /**
+   * Shares the secret for the recipients and seals every share for its recipient with {@link HybridShareCipher}.
+   * A sealed share is encoded as {@value #SHARE_PREFIX} followed by its Base64, about 30% shorter than a share
+   * encrypted with textbook RSA in decimal, and is authenticated together with the recipient's public key.
+   * The shares are sealed in parallel.
+   *
+   * @param threshold how many recipients must post their share sums before the overkey can be recovered
+   */
+  public Map<String, String> generateSecretKeyShares(String[] recipientPublicKeys, int threshold) {
+    Element[] keyEls = decodePublicKeys(recipientPublicKeys);
+    Tuple shares = shareSecret(keyEls, threshold);
+    return IntStream.range(0, keyEls.length).parallel().boxed().collect(Collectors.toMap(
+      i -> keyEls[i].convertToString(),
+      i -> sealShare(keyEls[i], shares.getAt(i))
+    ));
+  }
+
+  /**
+   * Encrypts every share with textbook RSA, the way earlier versions did.
+   *
+   * @deprecated use {@link #generateSecretKeyShares(String[], int)}, kept for comparison in tests
+   */
+  @Deprecated
+  public Map<String, String> generateSecretKeySharesRSA(String[] recipientPublicKeys, int threshold) {
+    Map<Element, Element> shares = generateSecretKeyShares(decodePublicKeys(recipientPublicKeys), threshold);
     Map<String, String> result = new HashMap<>();
     for (Map.Entry<Element, Element> entry : shares.entrySet()) {
       result.put(entry.getKey().convertToString(), entry.getValue().convertToString());
@@ -308,53 +590,106 @@ public final class VotingCryptoService {
    * @return
    */
   public Map<Element, Element> generateSecretKeyShares(Element[] recipientPublicKeys) {
+    return generateSecretKeyShares(recipientPublicKeys, recipientPublicKeys.length);
+  }
+
+  /**
+   * Shares the secret so that any threshold of the recipients can recover the overkey, see
+   * {@link #generateSecretKeyShares(Element[])}.
+   */
+  public Map<Element, Element> generateSecretKeyShares(Element[] recipientPublicKeys, int threshold) {
     AsymmetricEncryptionScheme rsa = getRSAScheme();
     Map<Element, Element> encryptedShares = new HashMap<>();
-    SecretSharingScheme sss = getSharingScheme(recipientPublicKeys.length, recipientPublicKeys.length);
-    Element message = sss.getMessageSpace().getElementFrom(votingSecret);
-    Tuple shares = sss.share(message);
-    Arrays.sort(recipientPublicKeys, Comparator.comparing(Element::convertToBigInteger));
+    Tuple shares = shareSecret(recipientPublicKeys, threshold);
     for (int i = 0; i < recipientPublicKeys.length; i++) {
       Element pubKey = recipientPublicKeys[i];
       Element share = shares.getAt(i);
-      Element rsaShare = rsa.getMessageSpace().getElementFrom(share.convertToBigInteger());
+      Element rsaShare = rsaParameters().spaces.messageSpace.getElementFrom(share.convertToBigInteger());
       encryptedShares.put(pubKey, rsa.encrypt(pubKey, rsaShare));
     }
     return encryptedShares;
   }
 
   public Element addOwnKeyShares(List<Map<String, String>> allUserShares) {
+    String ownPublicKey = generateKeyPair().publicKey.convertToString();
     Collection<String> shares = allUserShares.stream()
-      .map(map -> map.get(generateKeyPair().publicKey.convertToString()))
+      .map(map -> map.get(ownPublicKey))
       .collect(Collectors.toList());
     return addOwnKeyShares(shares);
   }
 
+  /**
+   * Opens the shares addressed to this participant in parallel and adds them up. Both sealed shares of
+   * {@link #generateSecretKeyShares(String[], int)} and RSA encrypted shares of earlier versions are accepted.
+   *
+   * @throws IllegalArgumentException if a sealed share was not sealed for this participant or has been tampered with
+   */
   public Element addOwnKeyShares(Collection<String> encryptedShares) {
-    AsymmetricEncryptionScheme rsa = getRSAScheme();
-    List<Element> shares = encryptedShares.stream()
-      .map(share -> rsa.getEncryptionSpace().getElementFrom(share))
-      .collect(Collectors.toList());
-    return addOwnKeyShares(shares, generateKeyPair().privateKey);
+    KeyPair pair = generateKeyPair();
+    RsaCrtKey crtKey = toCrtKey(pair.privateKey);
+    byte[] associatedData = pair.publicKey.convertToBigInteger().toByteArray();
+    SecretSharingScheme sss = getSharingScheme(encryptedShares.size(), encryptedShares.size());
+    return encryptedShares.parallelStream()
+      .map(share -> openShare(share, crtKey, associatedData))
+      .map(share -> sss.getShareSpace().getElementFrom(share))
+      .reduce(Element::apply)
+      .orElse(null);
   }
 
+  /**
+   * Decrypts the shares addressed to this participant and adds them up. The shares are decrypted in parallel with
+   * the CRT form of the key and folded with the tree reduction of a parallel stream. Every share counts, also
+   * shares that happen to be equal.
+   */
   public Element addOwnKeyShares(Collection<Element> encryptedShares, Element decryptionKey) {
-    AsymmetricEncryptionScheme rsa = getRSAScheme();
+    ZMod messageSpace = rsaParameters().spaces.messageSpace;
     SecretSharingScheme sss = getSharingScheme(encryptedShares.size(), encryptedShares.size());
-    Set<Element> shares = encryptedShares.stream()
-      .map(share -> rsa.decrypt(decryptionKey, share))
+    RsaCrtKey crtKey = toCrtKey(decryptionKey);
+    return encryptedShares.parallelStream()
+      .map(share -> messageSpace.getElement(crtKey.power(((ZModElement) share).getValue())))
       .map(share -> sss.getShareSpace().getElementFrom(share.convertToBigInteger()))
-      .collect(Collectors.toSet());
+      .reduce(Element::apply)
+      .orElse(null);
+  }
 
-    Element sum = null;
-    for (Element share : shares) {
-      if(sum == null) {
-        sum = share;
-        continue;
-      }
-      sum = sum.apply(share);
+  private Element[] decodePublicKeys(String[] publicKeys) {
+    Element[] keyEls = new Element[publicKeys.length];
+    for (int i = 0; i < publicKeys.length; i++) {
+      keyEls[i] = rsaParameters().spaces.publicKeySpace.getElementFrom(publicKeys[i]);
+    }
+    return keyEls;
+  }
+
+  /**
+   * Shares the secret and sorts the recipient keys in place, so that share i belongs to recipient i, see
+   * {@link #generateSecretKeyShares(Element[])}.
+   */
+  private Tuple shareSecret(Element[] recipientPublicKeys, int threshold) {
+    SecretSharingScheme sss = getSharingScheme(recipientPublicKeys.length, threshold);
+    Element message = sss.getMessageSpace().getElementFrom(votingSecret);
+    Tuple shares = sss.share(message);
+    Arrays.sort(recipientPublicKeys, Comparator.comparing(Element::convertToBigInteger));
+    return shares;
+  }
+
+  private static String sealShare(Element recipientPublicKey, Element share) {
+    BigInteger publicExponent = recipientPublicKey.convertToBigInteger();
+    byte[] sealed = rsaParameters().shareCipher.seal(publicExponent, share.convertToBigInteger().toByteArray(), publicExponent.toByteArray());
+    return SHARE_PREFIX + Base64.getEncoder().encodeToString(sealed);
+  }
+
+  /**
+   * @return the share as an integer of the share space
+   */
+  private BigInteger openShare(String share, RsaCrtKey crtKey, byte[] associatedData) {
+    if (!share.startsWith(SHARE_PREFIX)) // RSA encrypted share of an earlier version
+      return crtKey.power(((ZModElement) rsaParameters().spaces.encryptionSpace.getElementFrom(share)).getValue());
+    try {
+      byte[] sealed = Base64.getDecoder().decode(share.substring(SHARE_PREFIX.length()));
+      return new BigInteger(rsaParameters().shareCipher.open(crtKey, sealed, associatedData));
+    } catch (IllegalArgumentException | GeneralSecurityException e) {
+      throw new IllegalArgumentException("MPC share was not sealed for this participant or has been tampered with.", e);
     }
-    return sum;
   }
 
   public Element recoverSharedOverkey(Collection<String> shares) {
@@ -367,9 +702,21 @@ public final class VotingCryptoService {
     return recoverSharedOverkey(sharesArr);
   }
 
+  /**
+   * Interpolates the overkey from the summed shares (x, y) with the cached Lagrange coefficients of their indices,
+   * see {@link LagrangeInterpolator}. Recovering again for the same participants only costs one pass over the shares.
+   * Any threshold of the summed shares of a t-of-n sharing are enough, in any order.
+   */
   public Element recoverSharedOverkey(Element[] shares) {
-    SecretSharingScheme sss = getSharingScheme(shares.length, shares.length);
-    return sss.recover(shares);
+    ZModPrime z = (ZModPrime) getSharingScheme(shares.length, shares.length).getMessageSpace();
+    BigInteger[] indices = new BigInteger[shares.length];
+    BigInteger[] values = new BigInteger[shares.length];
+    for (int i = 0; i < shares.length; i++) {
+      Tuple share = (Tuple) shares[i];
+      indices[i] = ((ZModElement) share.getAt(0)).getValue();
+      values[i] = ((ZModElement) share.getAt(1)).getValue();
+    }
+    return z.getElement(LagrangeInterpolator.getInstance(z.getModulus(), indices).interpolateAtZero(values));
   }
 
 }
@@ -1,35 +1,79 @@
 package edu.pentakon.votingapp;
 
-import ch.bfh.unicrypt.math.algebra.general.interfaces.Element;
-import com.owlike.genson.Genson;
-import com.owlike.genson.GensonBuilder;
-import com.owlike.genson.reflect.VisibilityFilter;
+import edu.pentakon.votingapp.crypto.TallyAccumulator;
 import edu.pentakon.votingapp.model.*;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-public class VotingService {
+public class VotingService implements AutoCloseable {
 
   private Logger logger = Logger.getLogger(VotingService.class.getName());
 
-  private static final Genson genson = new GensonBuilder().setConstructorFilter(VisibilityFilter.ALL).create();
-
   // Services
   private final VotingCryptoService cryptoService;
-  private final EthereumService ethereumService;
+  private final AsyncEthereumService chain;
+  private final boolean ownsChain; // created by this service, so closed with it
 
   private final Election election;
   private final KeyPair keyPair;
+  private final ProofPrecomputationPool proofPool;
+
+  // Running tally of the verified votes, see accumulateVotes()
+  private final TallyAccumulator tally;
+  private final Map<String, TalliedVote> talliedVotes = new HashMap<>(); // uid => last ballot seen for the voter
+
+  /**
+   * The ballot of a voter as it was last seen and the ciphertext it added to the tally, null if it was rejected.
+   */
+  private static final class TalliedVote {
+    final String ballot;
+    final BigInteger ciphertext;
+
+    TalliedVote(String ballot, BigInteger ciphertext) {
+      this.ballot = ballot;
+      this.ciphertext = ciphertext;
+    }
+  }
 
+  /**
+   * Creates the service with an {@link AsyncEthereumService} of its own, which {@link #close()} closes.
+   */
   public VotingService(Election election, VotingCryptoService cryptoService, EthereumService ethereumService) throws Exception {
+    this(election, cryptoService, new AsyncEthereumService(ethereumService), true);
+  }
+
+  /**
+   * Creates the service on a shared {@link AsyncEthereumService}, which the caller closes.
+   */
+  public VotingService(Election election, VotingCryptoService cryptoService, AsyncEthereumService chain) throws Exception {
+    this(election, cryptoService, chain, false);
+  }
+
+  private VotingService(Election election, VotingCryptoService cryptoService, AsyncEthereumService chain, boolean ownsChain) throws Exception {
     this.cryptoService = cryptoService;
-    this.ethereumService = ethereumService;
+    this.chain = chain;
+    this.ownsChain = ownsChain;
     keyPair = cryptoService.generateKeyPair();
     this.election = election;
+    proofPool = new ProofPrecomputationPool(cryptoService, ProofPrecomputationPool.DEFAULT_CAPACITY);
+    tally = cryptoService.newTallyAccumulator();
+  }
+
+  /**
+   * Stops the background precomputation of proof commitments and closes the {@link AsyncEthereumService} if this
+   * service created it.
+   */
+  @Override
+  public void close() {
+    proofPool.close();
+    if (ownsChain)
+      chain.close();
   }
 
   public String getUID() {
@@ -38,55 +82,155 @@ public class VotingService {
 
   /**
    * Creates a voter ballot based on his public/private key pair and the provided {@link Choice}.
+   * The proof is completed from a commitment the {@link ProofPrecomputationPool} prepared in the background.
    */
   private Ballot createBallot(Choice choice) {
     BigInteger encryptedChoice = cryptoService.encryptChoice(choice);
-    NIProof proof = choice == Choice.YES
-      ? cryptoService.createProofOfValidityYES(keyPair.publicKey)
-      : cryptoService.createProofOfValidityNO(keyPair.publicKey);
+    NIProof proof = cryptoService.createProofOfValidity(keyPair.publicKey, proofPool.take(choice));
     return new Ballot(encryptedChoice.longValue(), proof);
   }
 
   public void submitVote(Choice choice) throws Exception {
-    Genson genson = new GensonBuilder().create();
-    logger.info("Submitting vote for public key " + keyPair.publicKey.convertToString());
+    AsyncEthereumService.await(submitVoteAsync(choice));
+  }
+
+  /**
+   * Creates, signs and shares the ballot on the common fork/join pool and submits it to the chain. A voter votes only
+   * once: the contract keeps the MPC shares of every vote without saying whose they are, so the shares of a second
+   * vote would add the voter's secret to the overkey twice.
+   *
+   * @return completes with an {@link IllegalStateException} if a vote has already been submitted for this voter
+   */
+  public CompletableFuture<Void> submitVoteAsync(Choice choice) {
     String pubKey = keyPair.publicKey.convertToString();
+    return chain.getVotes(Collections.singleton(pubKey)).thenApplyAsync(votes -> {
+      if (!votes.isEmpty())
+        throw new IllegalStateException("A vote has already been submitted for this voter.");
+      logger.info("Submitting vote for public key " + pubKey);
 
-    // create a ballot with the vote
-    Ballot ballot = createBallot(choice);
-    String serializedBallot = genson.serialize(ballot);
+      // create a ballot with the vote
+      Ballot ballot = createBallot(choice);
+      String serializedBallot = cryptoService.getBallotCodec().encode(ballot);
 
-    // sign ballot payload
-    String signature = cryptoService.signMessage(serializedBallot, keyPair.privateKey);
+      // sign ballot payload
+      String signature = cryptoService.signMessage(serializedBallot, keyPair.privateKey);
 
-    // generate MPC shares for vote overkey generation
-    String[] participantKeys = election.getAllowedVoterIds();
-    Map<String, String> shares = cryptoService.generateSecretKeyShares(participantKeys);
-    ethereumService.submitVote(new VotePayload(pubKey, serializedBallot, signature), shares);
-    logger.info("Vote was successfully submitted");
+      // generate MPC shares for vote overkey generation
+      String[] participantKeys = election.getAllowedVoterIds();
+      Map<String, String> shares = cryptoService.generateSecretKeyShares(participantKeys, election.getThreshold());
+      return chain.submitVote(new VotePayload(pubKey, serializedBallot, signature), shares);
+    }, ForkJoinPool.commonPool())
+      .thenCompose(submitted -> submitted)
+      .thenRun(() -> logger.info("Vote was successfully submitted"));
   }
 
   public void submitMPCSum() throws Exception {
+    AsyncEthereumService.await(submitMPCSumAsync());
+  }
+
+  public CompletableFuture<Void> submitMPCSumAsync() {
     String myUid = getUID();
     logger.log(Level.INFO, "Submitting MPC Shares for user {0}", new Object[]{myUid});
-    List<String> shares = ethereumService.getMPCShares(myUid);
-    Element shareSum = cryptoService.addOwnKeyShares(shares);
-    ethereumService.submitMPCSum(myUid, shareSum.convertToString());
-    logger.log(Level.INFO, "Shares submitted for user {0}", new Object[]{myUid});
+    return chain.getMPCShares(myUid)
+      .thenApplyAsync(shares -> cryptoService.addOwnKeyShares(shares).convertToString(), ForkJoinPool.commonPool())
+      .thenCompose(shareSum -> chain.submitMPCSum(myUid, shareSum))
+      .thenRun(() -> logger.log(Level.INFO, "Shares submitted for user {0}", new Object[]{myUid}));
+  }
+
+  public void accumulateVotes() throws Exception {
+    AsyncEthereumService.await(accumulateVotesAsync());
+  }
+
+  /**
+   * Verifies the votes that were submitted or replaced since the last call and brings the running tally up to date,
+   * so that when the election closes only the last few votes are left to process. A vote that was replaced, by a
+   * client that let the voter vote again, replaces the earlier one in the tally. The votes of the roster are read page
+   * by page on the chain's threads and verified on the common fork/join pool.
+   */
+  public CompletableFuture<Void> accumulateVotesAsync() {
+    Set<String> allowedVoterIds = new HashSet<>(Arrays.asList(election.getAllowedVoterIds()));
+    List<VotePayload> changed = new ArrayList<>(); // complete once the pages have been read
+    return chain.forEachVotePage(page -> collectChanged(page, allowedVoterIds, changed))
+      .thenAcceptAsync(nothing -> tallyChanged(changed), ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Like {@link #accumulateVotesAsync()}, but only reads the votes of the given voters, e.g. of the voters a
+   * {@link ContractEvent#VOTE_SUBMITTED} was seen for. Following the election this way reads every vote about once.
+   */
+  public CompletableFuture<Void> accumulateVotesAsync(Collection<String> uids) {
+    Set<String> allowedVoterIds = new HashSet<>(Arrays.asList(election.getAllowedVoterIds()));
+    List<String> voters = uids.stream().filter(allowedVoterIds::contains).distinct().collect(Collectors.toList());
+    if (voters.isEmpty())
+      return CompletableFuture.completedFuture(null); // not a participant of the election
+    List<VotePayload> changed = new ArrayList<>();
+    return chain.getVotes(voters)
+      .thenAcceptAsync(votes -> {
+        collectChanged(votes, allowedVoterIds, changed);
+        tallyChanged(changed);
+      }, ForkJoinPool.commonPool());
+  }
+
+  private synchronized void collectChanged(List<VotePayload> page, Set<String> allowedVoterIds, List<VotePayload> changed) {
+    for (VotePayload payload : page) {
+      if (!allowedVoterIds.contains(payload.uid))
+        continue; // not a participant of the election
+      TalliedVote previous = talliedVotes.get(payload.uid);
+      if (previous == null || !previous.ballot.equals(payload.ballot))
+        changed.add(payload);
+    }
+  }
+
+  private synchronized void tallyChanged(List<VotePayload> changed) {
+    changed.removeIf(payload -> { // tallied by an accumulation that ran at the same time
+      TalliedVote previous = talliedVotes.get(payload.uid);
+      return previous != null && previous.ballot.equals(payload.ballot);
+    });
+    if (changed.isEmpty())
+      return;
+
+    VotePayload[] payloads = changed.toArray(new VotePayload[0]);
+    Ballot[] accepted = verifyVotes(payloads);
+    BigInteger[] ciphertexts = new BigInteger[payloads.length];
+    for (int i = 0; i < payloads.length; i++) {
+      if (accepted[i] != null)
+        ciphertexts[i] = BigInteger.valueOf(accepted[i].choice);
+    }
+    BigInteger[] decoded = cryptoService.decodeVotes(ciphertexts);
+    List<BigInteger> added = new ArrayList<>();
+    for (int i = 0; i < payloads.length; i++) {
+      TalliedVote previous = talliedVotes.get(payloads[i].uid);
+      if (previous != null && previous.ciphertext != null)
+        tally.remove(previous.ciphertext);
+      if (decoded[i] != null)
+        added.add(decoded[i]);
+      else if (accepted[i] != null)
+        logger.log(Level.WARNING, "Encrypted vote of {0} is not a group element", new Object[]{payloads[i].uid});
+      talliedVotes.put(payloads[i].uid, new TalliedVote(payloads[i].ballot, decoded[i]));
+    }
+    tally.addAll(added.toArray(new BigInteger[0]));
+    logger.log(Level.INFO, "Tallied {0} new votes, {1} in total", new Object[]{added.size(), tally.getCount()});
   }
 
   public int[] tallyVotes() throws Exception {
-    List<VotePayload> payloads = filterValidVotes(ethereumService.getSubmittedVotes());
-    BigInteger overkey = generateOverkey();
-    Set<BigInteger> votes = payloads.stream()
-      .map(payload -> genson.deserialize(payload.ballot, Ballot.class))
-      .map(ballot -> BigInteger.valueOf(ballot.choice))
-      .collect(Collectors.toSet());
-    BigInteger encryptedTally = cryptoService.tallyVotes(votes);
-    long tallyResult = cryptoService.decryptTally(encryptedTally, overkey, payloads.size());
+    return AsyncEthereumService.await(tallyVotesAsync());
+  }
+
+  public CompletableFuture<int[]> tallyVotesAsync() {
+    return accumulateVotesAsync()
+      .thenCompose(nothing -> chain.getMPCSums())
+      .thenApplyAsync(this::countVotes, ForkJoinPool.commonPool());
+  }
+
+  private int[] countVotes(Map<String, String> mpcSums) {
+    TallyAccumulator.Checkpoint checkpoint = tally.checkpoint();
+    BigInteger overkey = generateOverkey(mpcSums);
+    BigInteger encryptedTally = cryptoService.tallyVotes(checkpoint);
+    long voteCount = checkpoint.count;
+    long tallyResult = cryptoService.decryptTally(encryptedTally, overkey, voteCount);
     int[] yesNo = new int[2];
-    if (votes.size() % 2 == 0) { // even number of votes
-      int halfVoteCount = votes.size() / 2;
+    if (voteCount % 2 == 0) { // even number of votes
+      int halfVoteCount = (int) (voteCount / 2);
       if (tallyResult == 0) {
         yesNo[0] = yesNo[1] = halfVoteCount;
         return yesNo;
@@ -101,7 +245,7 @@ public class VotingService {
         yesNo[1] = halfVoteCount - winningSideDiff;
       }
     } else { // odd number of votes
-      int halfVoteCount = (votes.size() - 1) / 2;
+      int halfVoteCount = (int) ((voteCount - 1) / 2);
       int winningSideDiff = (int) ((Math.abs(tallyResult) - 1) / 2);
       if (tallyResult < 0) {
         yesNo[0] = halfVoteCount - winningSideDiff;
@@ -117,28 +261,38 @@ public class VotingService {
   }
 
   public boolean checkElectionEnded() throws Exception {
-    BigInteger voteEndTS = ethereumService.getVoteEndTS(); // we must poll the voting end because the administrator might end the election early
+    return AsyncEthereumService.await(checkElectionEndedAsync());
+  }
+
+  public CompletableFuture<Boolean> checkElectionEndedAsync() {
+    // we must poll the voting end because the administrator might end the election early
     // Ethereum timestamps are Epoch Seconds, not millis like Java
-    return new Date().getTime() / 1000 > voteEndTS.longValueExact();
-  }
-
-  private List<VotePayload> filterValidVotes(VotePayload[] submittedVotes) {
-    final List<VotePayload> acceptedVotes = new ArrayList<>();
-    for (int i = 0; i < submittedVotes.length; i++) {
-      VotePayload payload = submittedVotes[i];
-      Ballot ballot = genson.deserialize(payload.ballot, Ballot.class);
-      NIProof proof = ballot.proof;
-      if (cryptoService.verifyProof(proof) && payload.submissionTimestamp <= election.getVotingEnd()) {
-        // TODO Add verifySignature check! Also Vote timestamp validity, allowed voter id etc
-        acceptedVotes.add(payload);
-      }
-    }
-    return acceptedVotes;
+    return chain.getVoteEndTS().thenApply(voteEndTS -> new Date().getTime() / 1000 > voteEndTS.longValueExact());
   }
 
-  private BigInteger generateOverkey() throws Exception {
-    Map<String, String> mpcSums = ethereumService.getMPCSums();
-    return cryptoService.recoverSharedOverkey(mpcSums.values()).convertToBigInteger();
+  /**
+   * Decodes and verifies the submitted votes in parallel on the common fork/join pool.
+   *
+   * @return the ballot of every accepted vote at the index of its payload, null for rejected votes
+   */
+  private Ballot[] verifyVotes(VotePayload[] submittedVotes) {
+    Ballot[] accepted = new Ballot[submittedVotes.length];
+    ForkJoinPool.commonPool().invoke(
+      new BallotVerificationTask(submittedVotes, accepted, 0, submittedVotes.length, election.getVotingEnd(), cryptoService));
+    return accepted;
+  }
+
+  /**
+   * Recovers the overkey from the first threshold MPC sums that have been posted, the rest are not needed.
+   */
+  private BigInteger generateOverkey(Map<String, String> mpcSums) {
+    mpcSums.keySet().retainAll(new HashSet<>(Arrays.asList(election.getAllowedVoterIds()))); // anyone can post a sum
+    int threshold = election.getThreshold();
+    if (mpcSums.size() < threshold) {
+      throw new IllegalStateException(String.format("Only %d of the %d MPC sums needed have been posted.", mpcSums.size(), threshold));
+    }
+    List<String> sums = new ArrayList<>(mpcSums.values()).subList(0, threshold);
+    return cryptoService.recoverSharedOverkey(sums).convertToBigInteger();
   }
 
 }
@@ -1,13 +1,12 @@
 package edu.pentakon.votingapp.controllers;
 
 import ch.bfh.unicrypt.helper.factorization.SafePrime;
+import edu.pentakon.votingapp.AsyncEthereumService;
 import edu.pentakon.votingapp.EthereumService;
 import edu.pentakon.votingapp.ServicesContext;
 import edu.pentakon.votingapp.VotingApplication;
 import edu.pentakon.votingapp.model.Election;
 import javafx.application.Platform;
-import javafx.concurrent.Task;
-import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
 import javafx.scene.control.*;
 import javafx.scene.layout.GridPane;
@@ -21,6 +20,7 @@ import java.util.Optional;
 public class AdminController {
 
   private EthereumService ethereumService;
+  private AsyncEthereumService chain;
 
   public GridPane gridPane;
   public ProgressIndicator progressIndicator;
@@ -30,16 +30,24 @@ public class AdminController {
   public DatePicker endDateFld;
   public TextField safePrimeFld;
   public Button safePrimeGen;
+  public TextField thresholdFld;
 
   public void init(String contractAddress) {
     ethereumService = ServicesContext.get(EthereumService.class);
+    chain = ServicesContext.get(AsyncEthereumService.class);
     contractAddressLabel.setText(contractAddressLabel.getText() + " " + contractAddress);
     safePrimeFld.setText("598363995809807");
+    try {
+      thresholdFld.setText(String.valueOf(ethereumService.getParticipantPublicKeys().length));
+    } catch (Exception e) {
+      thresholdFld.setText("");
+    }
     VotingApplication.get().getElection().ifPresent(election -> {
       titleFld.setText(election.getTitle());
       startDateFld.setValue(LocalDate.from(LocalDateTime.ofEpochSecond(election.getVotingStart(), 0, ZoneOffset.UTC)));
       endDateFld.setValue(LocalDate.from(LocalDateTime.ofEpochSecond(election.getVotingEnd(), 0, ZoneOffset.UTC)));
       safePrimeFld.setText(election.getCyclicGroupPrime().toString());
+      thresholdFld.setText(String.valueOf(election.getThreshold()));
     });
   }
 
@@ -50,51 +58,37 @@ public class AdminController {
     long end = endDateFld.getValue().atStartOfDay().toEpochSecond(ZoneOffset.UTC);
     String safePrimeModQ = safePrimeFld.getText();
     String[] allowedVoterUids = ethereumService.getParticipantPublicKeys();
-    Optional<String> maybeProblem = isElectionDataValid(start, end, safePrimeModQ, allowedVoterUids.length);
+    String threshold = thresholdFld.getText();
+    Optional<String> maybeProblem = isElectionDataValid(start, end, safePrimeModQ, threshold, allowedVoterUids.length);
     if(maybeProblem.isPresent()) {
       new Alert(Alert.AlertType.WARNING, maybeProblem.get(), ButtonType.CLOSE).show();
       return;
     }
 
-    Election election = new Election(title, start, end, new BigInteger(safePrimeModQ));
-    Task setupElectionTask = new Task() {
-      @Override
-      protected Object call() throws Exception {
-        ethereumService.setupElection(election);
-        return true;
-      }
-    };
+    Election election = new Election(title, start, end, new BigInteger(safePrimeModQ))
+      .setThreshold(Integer.parseInt(threshold.trim()));
     progressIndicator.setVisible(true);
-    new Thread(setupElectionTask).start();
-    setupElectionTask.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, event1 -> {
-      VotingApplication.get().setElection(election);
+    chain.setupElection(election).whenComplete((nothing, error) -> Platform.runLater(() -> {
       progressIndicator.setVisible(false);
+      if (error != null) {
+        new ExceptionDialogController("Η ανανέωση των παραμέτρων ψηφοφορίας απέτυχε.", AsyncEthereumService.cause(error));
+        return;
+      }
+      VotingApplication.get().setElection(election);
       new Alert(Alert.AlertType.INFORMATION, "Η ανανέωση των παραμέτρων ψηφοφορίας ήταν επιτυχής.", ButtonType.CLOSE).show();
-    });
-    setupElectionTask.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, event1 -> {
-      progressIndicator.setVisible(false);
-      new ExceptionDialogController("Η ανανέωση των παραμέτρων ψηφοφορίας απέτυχε.", setupElectionTask.getException());
-    });
+    }));
   }
 
   public void endElection(ActionEvent event) throws Exception {
-    Task setupElectionTask = new Task() {
-      @Override
-      protected Object call() throws Exception {
-        ethereumService.endElection();
-        return true;
-      }
-    };
     progressIndicator.setVisible(true);
-    new Thread(setupElectionTask).start();
-    setupElectionTask.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, event1 -> {
+    chain.endElection().whenComplete((nothing, error) -> Platform.runLater(() -> {
       progressIndicator.setVisible(false);
+      if (error != null) {
+        new ExceptionDialogController("Το κλείσιμο της ψηφοφορίας απέτυχε.", AsyncEthereumService.cause(error));
+        return;
+      }
       new Alert(Alert.AlertType.INFORMATION, "Η ψηφοφορία έκλεισε επιτυχώς.", ButtonType.CLOSE).show();
-    });
-    setupElectionTask.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, event1 -> {
-      progressIndicator.setVisible(false);
-      new ExceptionDialogController("Το κλείσιμο της ψηφοφορίας απέτυχε.", setupElectionTask.getException());
-    });
+    }));
   }
 
   public void generateSafePrime() {
@@ -105,7 +99,7 @@ public class AdminController {
     Platform.exit();
   }
 
-  private Optional<String> isElectionDataValid(long start, long end, String prime, int userCount) {
+  private Optional<String> isElectionDataValid(long start, long end, String prime, String threshold, int userCount) {
     boolean datesOk = start < end;
     if(!datesOk) {
       return Optional.of("Ημερομηνία έναρξης πρέπει να είναι μικρότερη από αυτή της λήξης.");
@@ -124,6 +118,16 @@ public class AdminController {
     if(!primeOk) {
       return Optional.of("Ο κρυπτογραφικός αριθμός δεν είναι ασφαλής πρώτος και μεγαλύτερος του " + userCount);
     }
+    boolean thresholdOk;
+    try {
+      int t = Integer.parseInt(threshold.trim());
+      thresholdOk = t >= 1 && t <= userCount;
+    } catch (Exception e) {
+      thresholdOk = false;
+    }
+    if(!thresholdOk) {
+      return Optional.of("Οι ελάχιστοι συμμετέχοντες πρέπει να είναι από 1 έως " + userCount);
+    }
     return Optional.empty();
   }
 }
@@ -1,15 +1,15 @@
 package edu.pentakon.votingapp.controllers;
 
 import ch.bfh.unicrypt.helper.factorization.SafePrime;
-import edu.pentakon.votingapp.EthereumService;
+import edu.pentakon.votingapp.AsyncEthereumService;
+import edu.pentakon.votingapp.ContractEvent;
+import edu.pentakon.votingapp.ContractEventSubscription;
 import edu.pentakon.votingapp.ServicesContext;
 import edu.pentakon.votingapp.VotingApplication;
 import edu.pentakon.votingapp.VotingService;
 import edu.pentakon.votingapp.model.Choice;
 import edu.pentakon.votingapp.model.Election;
 import javafx.application.Platform;
-import javafx.concurrent.Task;
-import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
 import javafx.scene.control.Label;
 import javafx.scene.control.*;
@@ -19,13 +19,18 @@ import java.awt.datatransfer.StringSelection;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoField;
+import java.util.Collections;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class VotingController {
 
+  private static final long POLL_INTERVAL = 15; // seconds, about one block
+
   private Logger logger = Logger.getLogger(VotingController.class.getName());
 
   public ProgressIndicator progressIndicator;
@@ -38,21 +43,25 @@ public class VotingController {
   public Label uidFld;
   private VotingApplication application;
   private Election election;
-  private EthereumService ethereumService;
   private VotingService votingService;
+  private AsyncEthereumService chain;
+  // only used on the application's executor
   private boolean electionEnded = false;
-  private int[] tallyingResult = null;
+  private boolean tallying = false; // the votes are being tallied or have been
+  private ContractEventSubscription eventSubscription;
+  private ScheduledFuture<?> endCheck; // only used on the application's executor after init
+  private ScheduledFuture<?> poll; // cancelled once the result is shown
 
   public void init(String password) throws Exception {
     application = VotingApplication.get();
-    ethereumService = ServicesContext.get(EthereumService.class);
+    chain = ServicesContext.get(AsyncEthereumService.class);
     election = application.getElection().orElseThrow(() -> new IllegalStateException("Μη διαθέσιμη ψηφοφορία.")); // TODO no exception if there is no election on login
     ServicesContext.initializeAll(SafePrime.getInstance(election.getCyclicGroupPrime()), password, election, election.getTitle());
     votingService = ServicesContext.get(VotingService.class);
     uidFld.setText(votingService.getUID());
     titleFld.setText(election.getTitle());
     periodFld.setText(generateVotingPeriodStr(election.getVotingStart(), election.getVotingEnd()));
-    startPollingForEndVote();
+    startListeningForElectionEvents();
   }
 
   private static String generateVotingPeriodStr(long start, long end) {
@@ -82,57 +91,121 @@ public class VotingController {
       return;
     }
 
-    Task setupElectionTask = new Task() {
-      @Override
-      protected Object call() throws Exception {
-        votingService.submitVote(choice);
-        return true;
-      }
-    };
     progressIndicator.setVisible(true);
-    new Thread(setupElectionTask).start();
-    setupElectionTask.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, event1 -> {
+    votingService.submitVoteAsync(choice).whenComplete((nothing, error) -> Platform.runLater(() -> {
       progressIndicator.setVisible(false);
+      if (error != null) {
+        new ExceptionDialogController("Η καταχώρηση ψήφου απέτυχε.", AsyncEthereumService.cause(error));
+        return;
+      }
       new Alert(Alert.AlertType.INFORMATION, "Η ψήφος καταχωρήθηκε επιτυχώς.", ButtonType.CLOSE).show();
-    });
-    setupElectionTask.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, event1 -> {
-      progressIndicator.setVisible(false);
-      new ExceptionDialogController("Η καταχώρηση ψήφου απέτυχε.", setupElectionTask.getException());
-    });
+    }));
   }
 
-  private void endElection() throws Exception {
+  private CompletableFuture<Void> endElection() {
     electionEnded = true;
-    votingService.submitMPCSum();
+    return votingService.submitMPCSumAsync();
   }
 
-  private void tallyVotes() throws Exception {
-    tallyingResult = votingService.tallyVotes();
-    Platform.runLater(() -> {
-      // this is used because from inside another thread (since this is run by the executor) it is not allowed to update
-      // the GUI directly in JavaFX. This gives the command to the JavaFX thread to run the provided runnable at a later update frame
-      resultFld.setText(String.format("%s: %d, %s: %d", "ΝΑΙ", tallyingResult[0], "ΟΧΙ", tallyingResult[1]));
+  private CompletableFuture<Void> tallyVotes() {
+    tallying = true;
+    return votingService.tallyVotesAsync().whenCompleteAsync((tallyingResult, error) -> {
+      if (error != null)
+        tallying = false; // try again on the next event
+    }, application.service).thenAccept(tallyingResult -> {
+      poll.cancel(false);
+      if (eventSubscription != null)
+        eventSubscription.close();
+      Platform.runLater(() -> {
+        // this is used because from inside another thread (since this is run by the executor) it is not allowed to update
+        // the GUI directly in JavaFX. This gives the command to the JavaFX thread to run the provided runnable at a later update frame
+        resultFld.setText(String.format("%s: %d, %s: %d", "ΝΑΙ", tallyingResult[0], "ΟΧΙ", tallyingResult[1]));
+      });
     });
   }
 
-  private void startPollingForEndVote() {
-    application.service.scheduleAtFixedRate(() -> {
-      try {
-        logger.log(Level.INFO, "User {0}: Polling", new Object[]{application.ssn});
-        if (electionEnded && tallyingResult == null && ethereumService.tallyVotes()) {
-          logger.log(Level.INFO, "User {0}: Tallying votes", new Object[]{application.ssn});
-          tallyVotes();
-        } else if (!electionEnded && votingService.checkElectionEnded()) {
+  /**
+   * Drives the election from the contract events: new votes are tallied as they come in, the end of the election is
+   * checked when it is due or ended early, and the votes are tallied once enough MPC sums are in.
+   * Every step starts on the application's executor and continues there once the chain has answered, so the executor
+   * never waits for the chain.
+   * <p>
+   * Events can be missed, e.g. while the websocket reconnects, so every {@value #POLL_INTERVAL} seconds the election
+   * also advances from the end of the election and the tally readiness read straight from the contract.
+   * <p>
+   * Called on the JavaFX thread, which only hands the start over to the application's executor; subscribing and
+   * reading the end of the election happen on the chain's threads.
+   */
+  private void startListeningForElectionEvents() {
+    application.service.execute(() -> {
+      poll = application.service.scheduleWithFixedDelay(() -> advance(null, null), POLL_INTERVAL, POLL_INTERVAL, TimeUnit.SECONDS);
+      report(chain.subscribe((event, uid) -> application.service.execute(() -> advance(event, uid)))
+        .thenAcceptAsync(subscription -> {
+          if (poll.isCancelled())
+            subscription.close(); // the poll already saw the election through
+          else
+            eventSubscription = subscription;
+        }, application.service)
+        .thenCompose(nothing -> scheduleEndCheck()));
+    });
+  }
+
+  /**
+   * @param event the contract event that triggered the step, null for the scheduled end check and the poll
+   * @param uid   the voter or participant the event was for, see {@link ContractEvent}
+   */
+  private void advance(ContractEvent event, String uid) {
+    logger.log(Level.INFO, "User {0}: {1}", new Object[]{application.ssn, event != null ? event : "End check"});
+    if (tallying)
+      return;
+    CompletableFuture<Void> step;
+    if (electionEnded) {
+      step = chain.tallyVotes().thenComposeAsync(ready -> {
+        if (!ready || tallying) {
+          logger.log(Level.INFO, "User {0}: Waiting for the MPC sums", new Object[]{application.ssn});
+          return CompletableFuture.completedFuture(null);
+        }
+        logger.log(Level.INFO, "User {0}: Tallying votes", new Object[]{application.ssn});
+        return tallyVotes();
+      }, application.service);
+    } else {
+      step = votingService.checkElectionEndedAsync().thenComposeAsync(ended -> {
+        if (electionEnded) {
+          return CompletableFuture.completedFuture(null); // ended by a step that finished in the meantime
+        } else if (ended) {
           logger.log(Level.INFO, "User {0}: Election ended", new Object[]{application.ssn});
-          endElection();
+          return endElection();
+        } else if (event == ContractEvent.VOTE_SUBMITTED) {
+          // keep the running tally current so it is ready when the election ends, votes missed here are read with the tally
+          return votingService.accumulateVotesAsync(Collections.singleton(uid));
         } else {
-          logger.log(Level.INFO, "User {0}: Election not ended", new Object[]{application.ssn});
+          return scheduleEndCheck(); // not due yet, or the end was moved
         }
-      } catch (Exception e) {
-        logger.log(Level.SEVERE, "Error during polling  : " + e.getMessage(), e);
-        new ExceptionDialogController(e);
-      }
-    }, 10, 10, TimeUnit.SECONDS);
+      }, application.service);
+    }
+    report(step);
+  }
+
+  private void report(CompletableFuture<Void> step) {
+    step.whenComplete((nothing, error) -> {
+      if (error == null)
+        return;
+      Throwable e = AsyncEthereumService.cause(error);
+      logger.log(Level.SEVERE, "Error while following the election: " + e.getMessage(), e);
+      Platform.runLater(() -> new ExceptionDialogController(e));
+    });
+  }
+
+  /**
+   * Schedules a check of the end of the election for when it is due, replacing the previous one.
+   */
+  private CompletableFuture<Void> scheduleEndCheck() {
+    return chain.getVoteEndTS().thenAcceptAsync(voteEndTS -> {
+      long delay = Math.max(1, voteEndTS.longValueExact() - new Date().getTime() / 1000);
+      if (endCheck != null)
+        endCheck.cancel(false);
+      endCheck = application.service.schedule(() -> advance(null, null), delay, TimeUnit.SECONDS);
+    }, application.service);
   }
 
   public void copyUid(ActionEvent event) {
@@ -0,0 +1,86 @@
+package edu.pentakon.votingapp.crypto;
+
+import java.math.BigInteger;
+
+/**
+ * {@link GroupArithmetic} on {@link BigInteger}, for moduli of any size.
+ */
+public final class BigIntegerArithmetic extends GroupArithmetic {
+
+  private static final int BIG_INTEGER_OVERHEAD = 48; // approximate object header + int[] header of a BigInteger
+
+  BigIntegerArithmetic(BigInteger modulus, BigInteger order) {
+    super(modulus, order);
+  }
+
+  @Override
+  public BigInteger multiply(BigInteger a, BigInteger b) {
+    return a.multiply(b).mod(modulus);
+  }
+
+  @Override
+  public BigInteger invert(BigInteger a) {
+    return a.modInverse(modulus);
+  }
+
+  @Override
+  public BigInteger power(BigInteger base, BigInteger exponent) {
+    return base.modPow(reduceExponent(exponent), modulus);
+  }
+
+  @Override
+  public BigInteger product(BigInteger[] values) {
+    BigInteger result = BigInteger.ONE;
+    for (BigInteger value : values) {
+      result = result.multiply(value).mod(modulus);
+    }
+    return result;
+  }
+
+  @Override
+  public BigInteger productOfPowers(BigInteger[] bases, BigInteger[] exponents) {
+    BigInteger[] reduced = new BigInteger[exponents.length];
+    for (int i = 0; i < exponents.length; i++) {
+      reduced[i] = reduceExponent(exponents[i]);
+    }
+    return MultiExponentiation.product(bases, reduced, modulus);
+  }
+
+  @Override
+  FixedBaseExponentiator createFixedBase(BigInteger base, long budget) {
+    return new FixedBase(base, budget);
+  }
+
+  private final class FixedBase extends FixedBaseExponentiator {
+
+    private final BigInteger[][] table;
+
+    private FixedBase(BigInteger base, long budget) {
+      super(base.mod(modulus), selectWindow(order.bitLength(), (modulus.bitLength() + 7) / 8 + BIG_INTEGER_OVERHEAD, budget));
+      int rows = (order.bitLength() + window - 1) / window;
+      int columns = 1 << window;
+      table = new BigInteger[rows][columns];
+      BigInteger rowBase = base.mod(modulus);
+      for (int i = 0; i < rows; i++) {
+        table[i][0] = BigInteger.ONE;
+        for (int j = 1; j < columns; j++) {
+          table[i][j] = table[i][j - 1].multiply(rowBase).mod(modulus);
+        }
+        rowBase = table[i][columns - 1].multiply(rowBase).mod(modulus); // base^(2^(w*(i+1)))
+      }
+    }
+
+    @Override
+    public BigInteger power(BigInteger exponent) {
+      BigInteger e = reduceExponent(exponent);
+      BigInteger result = BigInteger.ONE;
+      int bits = e.bitLength();
+      for (int i = 0, offset = 0; offset < bits; i++, offset += window) {
+        int digit = MultiExponentiation.digit(e, offset, window);
+        if (digit != 0)
+          result = result.multiply(table[i][digit]).mod(modulus);
+      }
+      return result;
+    }
+  }
+}
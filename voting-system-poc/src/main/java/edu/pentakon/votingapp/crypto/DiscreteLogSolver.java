@@ -0,0 +1,77 @@
+package edu.pentakon.votingapp.crypto;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Baby-step giant-step solver for discrete logarithms that are known to lie in a bounded range,
+ * which is the case for the decrypted tally g^0 * G^(sum of votes).
+ * <p>
+ * A range of N values costs O(sqrt(N)) multiplications and table entries. The baby-step table only depends on
+ * the group and the base, so it is cached per (modulus, base) and reused by every decryption that fits in it.
+ * A request for a larger range replaces the cached solver with a bigger one.
+ */
+public final class DiscreteLogSolver {
+
+  private static final Map<List<BigInteger>, DiscreteLogSolver> instances = new ConcurrentHashMap<>();
+
+  private final BigInteger modulus;
+  private final BigInteger base;
+  private final int babySteps;
+  private final Map<BigInteger, Integer> babyStepTable;
+  private final BigInteger giantStep; // base^-babySteps
+
+  private DiscreteLogSolver(BigInteger modulus, BigInteger base, int babySteps) {
+    this.modulus = modulus;
+    this.base = base;
+    this.babySteps = babySteps;
+    babyStepTable = new HashMap<>(babySteps * 2);
+    BigInteger current = BigInteger.ONE;
+    for (int j = 0; j < babySteps; j++) {
+      babyStepTable.putIfAbsent(current, j);
+      current = current.multiply(base).mod(modulus);
+    }
+    giantStep = current.modInverse(modulus);
+  }
+
+  /**
+   * Returns a cached solver whose baby-step table covers ranges of the given size in a single pass,
+   * building a bigger table if the cached one is too small.
+   *
+   * @param modulus   the prime modulus p
+   * @param base      the base of the logarithm, as its residue mod p
+   * @param rangeSize the number of candidate exponents that will be searched
+   */
+  public static DiscreteLogSolver getInstance(BigInteger modulus, BigInteger base, long rangeSize) {
+    int needed = (int) Math.max(1, Math.ceil(Math.sqrt((double) rangeSize)));
+    return instances.compute(Arrays.asList(modulus, base), (key, cached) ->
+      cached != null && cached.babySteps >= needed ? cached : new DiscreteLogSolver(modulus, base, needed));
+  }
+
+  /**
+   * Finds x in [min, max] with base^x = value mod p.
+   *
+   * @return the exponent, or empty if value is not a power of the base within the range
+   */
+  public OptionalLong solve(BigInteger value, long min, long max) {
+    if (max < min)
+      return OptionalLong.empty();
+    // base^x = value <=> base^(x - min) = value * base^-min
+    BigInteger gamma = value.multiply(base.modPow(BigInteger.valueOf(min), modulus)
+      .modInverse(modulus)).mod(modulus);
+    long range = max - min;
+    for (long i = 0; i * babySteps <= range; i++) {
+      Integer j = babyStepTable.get(gamma);
+      if (j != null && i * babySteps + j <= range) {
+        return OptionalLong.of(min + i * babySteps + j);
+      }
+      gamma = gamma.multiply(giantStep).mod(modulus);
+    }
+    return OptionalLong.empty();
+  }
+}
@@ -0,0 +1,86 @@
+package edu.pentakon.votingapp.crypto;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fixed-base exponentiation engine for a single base of a prime order subgroup of Z*p.
+ * <p>
+ * The exponent is split into windows of {@code w} bits and for every window position i the table holds
+ * base^(j * 2^(w*i)) for all j in [0, 2^w). A power then costs one table lookup and one modular multiplication
+ * per window and no squarings at all. The window width is the largest one whose table fits in the configured
+ * memory budget (system property {@value #TABLE_BUDGET_PROPERTY}, in bytes).
+ * <p>
+ * The tables are built by the {@link GroupArithmetic} backend of the group, so small groups get tables of
+ * primitive longs. Instances are immutable once built and are cached per (modulus, base) so every service working
+ * on the same group shares the same tables.
+ */
+public abstract class FixedBaseExponentiator {
+
+  public static final String TABLE_BUDGET_PROPERTY = "votingapp.crypto.fixedBaseTableBytes";
+  public static final long DEFAULT_TABLE_BUDGET = 4L * 1024 * 1024;
+  private static final int MAX_WINDOW = 16;
+
+  private static final Map<List<BigInteger>, FixedBaseExponentiator> instances = new ConcurrentHashMap<>();
+
+  protected final BigInteger base;
+  protected final int window;
+
+  FixedBaseExponentiator(BigInteger base, int window) {
+    this.base = base;
+    this.window = window;
+  }
+
+  /**
+   * Returns the shared exponentiator for the given base, building its tables on first use.
+   *
+   * @param modulus the prime modulus p of the group
+   * @param order   the order of the subgroup the base belongs to
+   * @param base    the fixed base, as its residue mod p
+   */
+  public static FixedBaseExponentiator getInstance(BigInteger modulus, BigInteger order, BigInteger base) {
+    return instances.computeIfAbsent(Arrays.asList(modulus, base),
+      key -> GroupArithmetic.getInstance(modulus, order)
+        .createFixedBase(base, Long.getLong(TABLE_BUDGET_PROPERTY, DEFAULT_TABLE_BUDGET)));
+  }
+
+  /**
+   * @param elementBytes the memory one table entry takes
+   * @return the widest window whose table stays within the budget
+   */
+  static int selectWindow(int exponentBits, long elementBytes, long budget) {
+    int window = 1;
+    while (window < MAX_WINDOW && window < exponentBits) {
+      int next = window + 1;
+      long rows = (exponentBits + next - 1) / next;
+      if (rows * (1L << next) * elementBytes > budget)
+        break;
+      window = next;
+    }
+    return window;
+  }
+
+  public BigInteger power(long exponent) {
+    return power(BigInteger.valueOf(exponent));
+  }
+
+  /**
+   * @param exponent any integer, negative values are reduced modulo the group order
+   * @return base^exponent mod p
+   */
+  public abstract BigInteger power(BigInteger exponent);
+
+  /**
+   * @return the fixed base, as its residue mod p
+   */
+  public BigInteger getBase() {
+    return base;
+  }
+
+  public int getWindow() {
+    return window;
+  }
+}
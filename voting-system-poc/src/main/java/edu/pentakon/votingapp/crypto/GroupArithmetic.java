@@ -0,0 +1,76 @@
+package edu.pentakon.votingapp.crypto;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Arithmetic of the prime order subgroup of Z*p the voting scheme works in, on plain residues mod p.
+ * <p>
+ * {@link #getInstance(BigInteger, BigInteger)} picks the backend from the size of the modulus: moduli of up to
+ * {@value MontgomeryArithmetic#MAX_MODULUS_BITS} bits get {@link MontgomeryArithmetic}, which works on primitive
+ * longs, every other modulus gets the {@link BigInteger} based {@link BigIntegerArithmetic}.
+ * Exponents may be any integer, they are reduced modulo the group order.
+ */
+public abstract class GroupArithmetic {
+
+  private static final Map<BigInteger, GroupArithmetic> instances = new ConcurrentHashMap<>();
+
+  protected final BigInteger modulus;
+  protected final BigInteger order;
+
+  GroupArithmetic(BigInteger modulus, BigInteger order) {
+    this.modulus = modulus;
+    this.order = order;
+  }
+
+  /**
+   * @param modulus the prime modulus p
+   * @param order   the order of the subgroup, (p - 1) / 2 for a safe prime
+   * @return the shared arithmetic for the group, the fastest backend that supports the modulus
+   */
+  public static GroupArithmetic getInstance(BigInteger modulus, BigInteger order) {
+    return instances.computeIfAbsent(modulus, key -> MontgomeryArithmetic.supports(modulus)
+      ? new MontgomeryArithmetic(modulus, order)
+      : new BigIntegerArithmetic(modulus, order));
+  }
+
+  public BigInteger getModulus() {
+    return modulus;
+  }
+
+  public BigInteger getOrder() {
+    return order;
+  }
+
+  public abstract BigInteger multiply(BigInteger a, BigInteger b);
+
+  public abstract BigInteger invert(BigInteger a);
+
+  public BigInteger divide(BigInteger a, BigInteger b) {
+    return multiply(a, invert(b));
+  }
+
+  public abstract BigInteger power(BigInteger base, BigInteger exponent);
+
+  /**
+   * @return the product of all values mod p, 1 for no values
+   */
+  public abstract BigInteger product(BigInteger[] values);
+
+  /**
+   * @return the product of all bases[i]^exponents[i] mod p, computed as one multi-exponentiation
+   */
+  public abstract BigInteger productOfPowers(BigInteger[] bases, BigInteger[] exponents);
+
+  /**
+   * Builds the fixed-base tables of a base, see {@link FixedBaseExponentiator}.
+   *
+   * @param budget the approximate maximum size of the tables in bytes
+   */
+  abstract FixedBaseExponentiator createFixedBase(BigInteger base, long budget);
+
+  BigInteger reduceExponent(BigInteger exponent) {
+    return exponent.signum() < 0 || exponent.compareTo(order) >= 0 ? exponent.mod(order) : exponent;
+  }
+}
@@ -0,0 +1,165 @@
+package edu.pentakon.votingapp.crypto;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Recovers a Shamir shared secret f(0) from the shares (x_j, f(x_j)) with precomputed Lagrange coefficients
+ * <pre>
+ *   f(0) = sum(lambda_j * y_j)    lambda_j = prod_{l != j} x_l / (x_l - x_j) mod P
+ * </pre>
+ * The coefficients only depend on the share indices x_j, so they are computed once per (P, indices) and kept in a
+ * least recently used cache of {@value #MAX_INSTANCES} entries; a recovery is then a single pass over the shares. All the denominators are inverted together with Montgomery's
+ * trick, i.e. with one modular inversion and 3(n - 1) multiplications.
+ * <p>
+ * Summed shares of n participants have the indices c, 2c, ..., nc. For such rosters lambda_j reduces to
+ * (-1)^(j-1) * binomial(n, j), which takes O(n) multiplications instead of the O(n^2) of the general case.
+ */
+public final class LagrangeInterpolator {
+
+  static final int MAX_INSTANCES = 64;
+
+  private static final Map<List<BigInteger>, LagrangeInterpolator> instances =
+    new LinkedHashMap<List<BigInteger>, LagrangeInterpolator>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<List<BigInteger>, LagrangeInterpolator> eldest) {
+        return size() > MAX_INSTANCES;
+      }
+    };
+
+  private final BigInteger modulus;
+  private final BigInteger[] coefficients;
+
+  private LagrangeInterpolator(BigInteger modulus, BigInteger[] indices) {
+    this.modulus = modulus;
+    BigInteger[] binomial = progressionCoefficients(modulus, indices);
+    this.coefficients = binomial != null ? binomial : generalCoefficients(modulus, indices);
+  }
+
+  /**
+   * @param modulus the prime P of the field the shares live in
+   * @param indices the distinct, non zero x values of the shares, in the order the y values will be passed in
+   */
+  public static LagrangeInterpolator getInstance(BigInteger modulus, BigInteger[] indices) {
+    List<BigInteger> key = new ArrayList<>(indices.length + 1);
+    key.add(modulus);
+    Set<BigInteger> distinct = new HashSet<>();
+    for (BigInteger index : indices) {
+      BigInteger x = index.mod(modulus);
+      if (x.signum() == 0 || !distinct.add(x))
+        throw new IllegalArgumentException("Share indices must be distinct and not zero.");
+      key.add(x);
+    }
+    synchronized (instances) {
+      LagrangeInterpolator instance = instances.get(key);
+      if (instance != null)
+        return instance;
+    }
+    // computed outside the lock, racing threads compute the same coefficients and the first one is kept
+    LagrangeInterpolator computed = new LagrangeInterpolator(modulus, key.subList(1, key.size()).toArray(new BigInteger[0]));
+    synchronized (instances) {
+      LagrangeInterpolator existing = instances.putIfAbsent(key, computed);
+      return existing != null ? existing : computed;
+    }
+  }
+
+  /**
+   * @param values the y values of the shares, in the order of the indices of this interpolator
+   * @return f(0) mod P
+   */
+  public BigInteger interpolateAtZero(BigInteger[] values) {
+    if (values.length != coefficients.length)
+      throw new IllegalArgumentException("Every share index needs exactly one value.");
+    BigInteger result = BigInteger.ZERO;
+    for (int j = 0; j < values.length; j++) {
+      result = result.add(coefficients[j].multiply(values[j]));
+    }
+    return result.mod(modulus);
+  }
+
+  /**
+   * Inverts all values mod P with a single modular inversion (Montgomery's trick).
+   *
+   * @throws ArithmeticException if a value is not invertible
+   */
+  static BigInteger[] batchInvert(BigInteger[] values, BigInteger modulus) {
+    BigInteger[] prefix = new BigInteger[values.length];
+    BigInteger running = BigInteger.ONE;
+    for (int i = 0; i < values.length; i++) {
+      prefix[i] = running; // product of values[0..i-1]
+      running = running.multiply(values[i]).mod(modulus);
+    }
+    BigInteger inverse = running.modInverse(modulus); // (values[0] * ... * values[n-1])^-1
+    BigInteger[] result = new BigInteger[values.length];
+    for (int i = values.length - 1; i >= 0; i--) {
+      result[i] = inverse.multiply(prefix[i]).mod(modulus);
+      inverse = inverse.multiply(values[i]).mod(modulus);
+    }
+    return result;
+  }
+
+  /**
+   * lambda_j = X / (x_j * prod_{l != j} (x_l - x_j)) with X the product of all indices.
+   */
+  private static BigInteger[] generalCoefficients(BigInteger modulus, BigInteger[] indices) {
+    int n = indices.length;
+    BigInteger product = BigInteger.ONE;
+    BigInteger[] denominators = new BigInteger[n];
+    for (int j = 0; j < n; j++) {
+      product = product.multiply(indices[j]).mod(modulus);
+      BigInteger denominator = indices[j];
+      for (int l = 0; l < n; l++) {
+        if (l != j)
+          denominator = denominator.multiply(indices[l].subtract(indices[j])).mod(modulus);
+      }
+      denominators[j] = denominator;
+    }
+    BigInteger[] coefficients = batchInvert(denominators, modulus);
+    for (int j = 0; j < n; j++) {
+      coefficients[j] = coefficients[j].multiply(product).mod(modulus);
+    }
+    return coefficients;
+  }
+
+  /**
+   * @return the coefficients (-1)^(i-1) * binomial(n, i) if the indices are c*i for i = 1..n in any order, else null
+   */
+  private static BigInteger[] progressionCoefficients(BigInteger modulus, BigInteger[] indices) {
+    int n = indices.length;
+    if (n == 0 || BigInteger.valueOf(n).compareTo(modulus) >= 0)
+      return null;
+    BigInteger[] sorted = indices.clone();
+    Arrays.sort(sorted);
+    BigInteger step = sorted[0];
+    for (int i = 0; i < n; i++) {
+      if (!sorted[i].equals(step.multiply(BigInteger.valueOf(i + 1))))
+        return null;
+    }
+
+    // binomial(n, i) = n! / (i! (n-i)!) with the inverse factorials derived from a single inversion of n!
+    BigInteger[] factorials = new BigInteger[n + 1];
+    factorials[0] = BigInteger.ONE;
+    for (int i = 1; i <= n; i++) {
+      factorials[i] = factorials[i - 1].multiply(BigInteger.valueOf(i)).mod(modulus);
+    }
+    BigInteger[] inverseFactorials = new BigInteger[n + 1];
+    inverseFactorials[n] = factorials[n].modInverse(modulus);
+    for (int i = n; i > 0; i--) {
+      inverseFactorials[i - 1] = inverseFactorials[i].multiply(BigInteger.valueOf(i)).mod(modulus);
+    }
+
+    BigInteger[] coefficients = new BigInteger[n];
+    for (int j = 0; j < n; j++) {
+      int i = indices[j].divide(step).intValueExact();
+      BigInteger binomial = factorials[n].multiply(inverseFactorials[i]).mod(modulus).multiply(inverseFactorials[n - i]).mod(modulus);
+      coefficients[j] = i % 2 == 1 ? binomial : modulus.subtract(binomial).mod(modulus);
+    }
+    return coefficients;
+  }
+}
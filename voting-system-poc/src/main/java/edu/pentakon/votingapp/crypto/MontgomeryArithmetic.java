@@ -0,0 +1,273 @@
+package edu.pentakon.votingapp.crypto;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * {@link GroupArithmetic} for moduli that fit in a machine word, on primitive longs in Montgomery form
+ * (a is represented by a * 2^64 mod p).
+ * <p>
+ * A Montgomery multiplication needs the 128 bit product of two words, which Java 8 has no intrinsic for,
+ * so it is assembled from 32 bit halves in {@link #multiplyHigh(long, long)}. Restricting the modulus to
+ * {@value #MAX_MODULUS_BITS} bits keeps every intermediate value below 2^63, so no unsigned comparisons are
+ * needed either. The multiplication, power and multi-exponentiation loops do not allocate; only the
+ * {@link BigInteger} methods of {@link GroupArithmetic} convert their arguments and result once per call.
+ */
+public final class MontgomeryArithmetic extends GroupArithmetic {
+
+  public static final int MAX_MODULUS_BITS = 62;
+
+  private final long p;
+  private final long q;
+  private final long pNegInverse; // -p^-1 mod 2^64
+  private final long rSquared; // 2^128 mod p
+  private final long one; // 2^64 mod p, i.e. 1 in Montgomery form
+
+  MontgomeryArithmetic(BigInteger modulus, BigInteger order) {
+    super(modulus, order);
+    if (!supports(modulus))
+      throw new IllegalArgumentException(String.format("Modulus %s does not fit in %d bits.", modulus, MAX_MODULUS_BITS));
+    p = modulus.longValueExact();
+    q = order.longValueExact();
+    long inverse = p; // Newton iteration, every step doubles the number of correct low bits
+    for (int i = 0; i < 5; i++) {
+      inverse *= 2 - p * inverse;
+    }
+    pNegInverse = -inverse;
+    one = BigInteger.ONE.shiftLeft(64).mod(modulus).longValueExact();
+    rSquared = BigInteger.ONE.shiftLeft(128).mod(modulus).longValueExact();
+  }
+
+  static boolean supports(BigInteger modulus) {
+    return modulus.testBit(0) && modulus.bitLength() <= MAX_MODULUS_BITS;
+  }
+
+  /**
+   * The high 64 bits of the signed 128 bit product, as Math.multiplyHigh of Java 9 computes them.
+   */
+  static long multiplyHigh(long x, long y) {
+    long x1 = x >> 32;
+    long x2 = x & 0xFFFFFFFFL;
+    long y1 = y >> 32;
+    long y2 = y & 0xFFFFFFFFL;
+    long z2 = x2 * y2;
+    long t = x1 * y2 + (z2 >>> 32);
+    long z1 = t & 0xFFFFFFFFL;
+    long z0 = t >> 32;
+    z1 += x2 * y1;
+    return x1 * y1 + z0 + (z1 >> 32);
+  }
+
+  /**
+   * Montgomery product a * b * 2^-64 mod p of two values in Montgomery form.
+   */
+  public long montgomeryMultiply(long a, long b) {
+    long low = a * b;
+    long high = multiplyHigh(a, b); // a, b < 2^62, the signed high word is the unsigned one
+    long m = low * pNegInverse;
+    long mpHigh = multiplyHigh(m, p) + ((m >> 63) & p); // m is unsigned, p < 2^62
+    // low + m * p is 0 mod 2^64, so the low words only carry when low is not 0
+    long result = high + mpHigh + (low != 0 ? 1 : 0);
+    return result >= p ? result - p : result;
+  }
+
+  public long toMontgomery(long a) {
+    return montgomeryMultiply(a, rSquared);
+  }
+
+  public long fromMontgomery(long a) {
+    return montgomeryMultiply(a, 1);
+  }
+
+  /**
+   * @param base     in Montgomery form
+   * @param exponent in [0, q)
+   * @return base^exponent in Montgomery form
+   */
+  public long montgomeryPower(long base, long exponent) {
+    long result = one;
+    for (int bit = 63 - Long.numberOfLeadingZeros(exponent); bit >= 0; bit--) {
+      result = montgomeryMultiply(result, result);
+      if (((exponent >>> bit) & 1) != 0)
+        result = montgomeryMultiply(result, base);
+    }
+    return result;
+  }
+
+  public long multiply(long a, long b) {
+    return montgomeryMultiply(toMontgomery(a), b); // (a*R) * b * R^-1 = a*b
+  }
+
+  public long power(long base, long exponent) {
+    return fromMontgomery(montgomeryPower(toMontgomery(base), Math.floorMod(exponent, q)));
+  }
+
+  private long reduce(BigInteger exponent) {
+    return reduceExponent(exponent).longValue();
+  }
+
+  private long residue(BigInteger value) {
+    return value.signum() < 0 || value.compareTo(modulus) >= 0 ? value.mod(modulus).longValue() : value.longValue();
+  }
+
+  @Override
+  public BigInteger multiply(BigInteger a, BigInteger b) {
+    return BigInteger.valueOf(multiply(residue(a), residue(b)));
+  }
+
+  @Override
+  public BigInteger invert(BigInteger a) {
+    return BigInteger.valueOf(fromMontgomery(montgomeryPower(toMontgomery(residue(a)), p - 2))); // Fermat
+  }
+
+  @Override
+  public BigInteger power(BigInteger base, BigInteger exponent) {
+    return BigInteger.valueOf(fromMontgomery(montgomeryPower(toMontgomery(residue(base)), reduce(exponent))));
+  }
+
+  @Override
+  public BigInteger product(BigInteger[] values) {
+    long result = one;
+    for (BigInteger value : values) {
+      result = montgomeryMultiply(result, toMontgomery(residue(value)));
+    }
+    return BigInteger.valueOf(fromMontgomery(result));
+  }
+
+  @Override
+  public BigInteger productOfPowers(BigInteger[] bases, BigInteger[] exponents) {
+    if (bases.length != exponents.length)
+      throw new IllegalArgumentException("Every base needs exactly one exponent.");
+    long[] montgomeryBases = new long[bases.length];
+    long[] reduced = new long[exponents.length];
+    for (int i = 0; i < bases.length; i++) {
+      montgomeryBases[i] = toMontgomery(residue(bases[i]));
+      reduced[i] = reduce(exponents[i]);
+    }
+    return BigInteger.valueOf(fromMontgomery(montgomeryProductOfPowers(montgomeryBases, reduced)));
+  }
+
+  /**
+   * Straus interleaving or Pippenger's bucket method as in {@link MultiExponentiation}, on Montgomery form values.
+   *
+   * @param bases     in Montgomery form
+   * @param exponents in [0, q)
+   * @return the product in Montgomery form
+   */
+  public long montgomeryProductOfPowers(long[] bases, long[] exponents) {
+    long maxExponent = 0;
+    for (long exponent : exponents) {
+      maxExponent |= exponent;
+    }
+    int bits = 64 - Long.numberOfLeadingZeros(maxExponent);
+    if (bits == 0)
+      return one;
+    return bases.length <= MultiExponentiation.STRAUS_MAX_BASES
+      ? montgomeryStraus(bases, exponents, bits)
+      : montgomeryPippenger(bases, exponents, bits);
+  }
+
+  private long montgomeryStraus(long[] bases, long[] exponents, int bits) {
+    int window = MultiExponentiation.strausWindow(bits);
+    long mask = (1L << window) - 1;
+    long[][] tables = new long[bases.length][1 << window];
+    for (int i = 0; i < bases.length; i++) {
+      tables[i][1] = bases[i];
+      for (int j = 2; j < tables[i].length; j++) {
+        tables[i][j] = montgomeryMultiply(tables[i][j - 1], bases[i]);
+      }
+    }
+    long result = one;
+    for (int offset = ((bits - 1) / window) * window; offset >= 0; offset -= window) {
+      for (int s = 0; s < window; s++) {
+        result = montgomeryMultiply(result, result);
+      }
+      for (int i = 0; i < bases.length; i++) {
+        int digit = (int) ((exponents[i] >>> offset) & mask);
+        if (digit != 0)
+          result = montgomeryMultiply(result, tables[i][digit]);
+      }
+    }
+    return result;
+  }
+
+  private long montgomeryPippenger(long[] bases, long[] exponents, int bits) {
+    int window = MultiExponentiation.pippengerWindow(bases.length);
+    long mask = (1L << window) - 1;
+    long[] buckets = new long[1 << window];
+    boolean[] filled = new boolean[buckets.length]; // a base of 0 is a valid residue, so it cannot mark an empty bucket
+    long result = one;
+    for (int offset = ((bits - 1) / window) * window; offset >= 0; offset -= window) {
+      for (int s = 0; s < window; s++) {
+        result = montgomeryMultiply(result, result);
+      }
+      Arrays.fill(filled, false);
+      for (int i = 0; i < bases.length; i++) {
+        int digit = (int) ((exponents[i] >>> offset) & mask);
+        if (digit != 0) {
+          buckets[digit] = filled[digit] ? montgomeryMultiply(buckets[digit], bases[i]) : bases[i];
+          filled[digit] = true;
+        }
+      }
+      long running = one;
+      long windowProduct = one;
+      for (int k = buckets.length - 1; k > 0; k--) {
+        if (filled[k])
+          running = montgomeryMultiply(running, buckets[k]);
+        windowProduct = montgomeryMultiply(windowProduct, running);
+      }
+      result = montgomeryMultiply(result, windowProduct);
+    }
+    return result;
+  }
+
+  @Override
+  FixedBaseExponentiator createFixedBase(BigInteger base, long budget) {
+    return new FixedBase(residue(base), budget);
+  }
+
+  private final class FixedBase extends FixedBaseExponentiator {
+
+    private final long[][] table;
+
+    private FixedBase(long base, long budget) {
+      super(BigInteger.valueOf(base), selectWindow(order.bitLength(), Long.BYTES, budget));
+      int rows = (order.bitLength() + window - 1) / window;
+      int columns = 1 << window;
+      table = new long[rows][columns];
+      long rowBase = toMontgomery(base);
+      for (int i = 0; i < rows; i++) {
+        table[i][0] = one;
+        for (int j = 1; j < columns; j++) {
+          table[i][j] = montgomeryMultiply(table[i][j - 1], rowBase);
+        }
+        rowBase = montgomeryMultiply(table[i][columns - 1], rowBase); // base^(2^(w*(i+1)))
+      }
+    }
+
+    @Override
+    public BigInteger power(long exponent) {
+      return BigInteger.valueOf(fromMontgomery(montgomeryPower(Math.floorMod(exponent, q))));
+    }
+
+    @Override
+    public BigInteger power(BigInteger exponent) {
+      return BigInteger.valueOf(fromMontgomery(montgomeryPower(reduce(exponent))));
+    }
+
+    /**
+     * @param exponent in [0, q)
+     * @return base^exponent in Montgomery form
+     */
+    long montgomeryPower(long exponent) {
+      long mask = (1L << window) - 1;
+      long result = one;
+      for (int i = 0; exponent != 0; i++, exponent >>>= window) {
+        int digit = (int) (exponent & mask);
+        if (digit != 0)
+          result = montgomeryMultiply(result, table[i][digit]);
+      }
+      return result;
+    }
+  }
+}
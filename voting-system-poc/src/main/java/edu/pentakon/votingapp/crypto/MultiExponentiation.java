@@ -0,0 +1,132 @@
+package edu.pentakon.votingapp.crypto;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Computes products of powers b1^e1 * b2^e2 * ... * bn^en mod p in a single pass.
+ * <p>
+ * Both algorithms cut the exponents into windows and share one chain of squarings between all bases, so a product of
+ * n powers costs far less than n separate exponentiations.
+ * <ul>
+ * <li>Straus/Shamir interleaving, for up to {@value #STRAUS_MAX_BASES} bases: every base gets a small table of its
+ * first 2^w powers and every window costs one table multiplication per base.</li>
+ * <li>Pippenger's bucket method, for more bases: for every window the bases are dropped into the bucket of their
+ * digit. The buckets are then combined with a running product, so every window costs about n + 2^(c+1)
+ * multiplications however large n gets.</li>
+ * </ul>
+ */
+public final class MultiExponentiation {
+
+  static final int STRAUS_MAX_BASES = 32; // beyond this the per base tables cost more than the buckets
+  private static final int MAX_STRAUS_WINDOW = 8;
+
+  private MultiExponentiation() {
+  }
+
+  /**
+   * @param bases     residues mod p
+   * @param exponents non negative exponents, one per base
+   * @param modulus   the modulus p
+   * @return the product of all bases[i]^exponents[i] mod p
+   */
+  public static BigInteger product(BigInteger[] bases, BigInteger[] exponents, BigInteger modulus) {
+    if (bases.length != exponents.length)
+      throw new IllegalArgumentException("Every base needs exactly one exponent.");
+    int bits = 0;
+    for (BigInteger exponent : exponents) {
+      if (exponent.signum() < 0)
+        throw new IllegalArgumentException("Exponents must not be negative.");
+      bits = Math.max(bits, exponent.bitLength());
+    }
+    if (bits == 0)
+      return BigInteger.ONE;
+    return bases.length <= STRAUS_MAX_BASES
+      ? straus(bases, exponents, modulus, bits)
+      : pippenger(bases, exponents, modulus, bits);
+  }
+
+  private static BigInteger straus(BigInteger[] bases, BigInteger[] exponents, BigInteger modulus, int bits) {
+    int window = strausWindow(bits);
+    int windows = (bits + window - 1) / window;
+    BigInteger[][] tables = new BigInteger[bases.length][1 << window];
+    for (int i = 0; i < bases.length; i++) {
+      tables[i][1] = bases[i].mod(modulus);
+      for (int j = 2; j < tables[i].length; j++) {
+        tables[i][j] = tables[i][j - 1].multiply(tables[i][1]).mod(modulus);
+      }
+    }
+    BigInteger result = BigInteger.ONE;
+    for (int w = windows - 1; w >= 0; w--) {
+      if (w != windows - 1) {
+        for (int s = 0; s < window; s++) {
+          result = result.multiply(result).mod(modulus);
+        }
+      }
+      int offset = w * window;
+      for (int i = 0; i < bases.length; i++) {
+        int digit = digit(exponents[i], offset, window);
+        if (digit != 0)
+          result = result.multiply(tables[i][digit]).mod(modulus);
+      }
+    }
+    return result;
+  }
+
+  private static BigInteger pippenger(BigInteger[] bases, BigInteger[] exponents, BigInteger modulus, int bits) {
+    int window = pippengerWindow(bases.length);
+    int windows = (bits + window - 1) / window;
+    BigInteger[] buckets = new BigInteger[1 << window];
+    BigInteger result = BigInteger.ONE;
+    for (int w = windows - 1; w >= 0; w--) {
+      for (int s = 0; s < window; s++) {
+        result = result.multiply(result).mod(modulus);
+      }
+      Arrays.fill(buckets, null);
+      int offset = w * window;
+      for (int i = 0; i < bases.length; i++) {
+        int digit = digit(exponents[i], offset, window);
+        if (digit != 0)
+          buckets[digit] = buckets[digit] == null ? bases[i] : buckets[digit].multiply(bases[i]).mod(modulus);
+      }
+      // prod_k bucket_k^k == prod_k (bucket_top * ... * bucket_k)
+      BigInteger running = BigInteger.ONE;
+      BigInteger windowProduct = BigInteger.ONE;
+      for (int k = buckets.length - 1; k > 0; k--) {
+        if (buckets[k] != null)
+          running = running.multiply(buckets[k]).mod(modulus);
+        if (!running.equals(BigInteger.ONE))
+          windowProduct = windowProduct.multiply(running).mod(modulus);
+      }
+      result = result.multiply(windowProduct).mod(modulus);
+    }
+    return result;
+  }
+
+  /**
+   * @return the window w that minimises the 2^w table entries plus the bits / w window multiplications of each base
+   */
+  static int strausWindow(int exponentBits) {
+    int window = 1;
+    while (window < MAX_STRAUS_WINDOW
+      && (1 << (window + 1)) + exponentBits / (window + 1) < (1 << window) + exponentBits / window) {
+      window++;
+    }
+    return window;
+  }
+
+  static int pippengerWindow(int baseCount) {
+    if (baseCount < 4)
+      return 1;
+    int log = 31 - Integer.numberOfLeadingZeros(baseCount);
+    return Math.max(2, Math.min(16, log - 1));
+  }
+
+  static int digit(BigInteger exponent, int offset, int window) {
+    int digit = 0;
+    for (int b = window - 1; b >= 0; b--) {
+      digit = (digit << 1) | (exponent.testBit(offset + b) ? 1 : 0);
+    }
+    return digit;
+  }
+}
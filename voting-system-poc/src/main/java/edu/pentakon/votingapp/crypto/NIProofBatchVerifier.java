@@ -0,0 +1,214 @@
+package edu.pentakon.votingapp.crypto;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Verifies proofs of validity, one at a time or many at once with random linear combinations.
+ * <p>
+ * Every proof must satisfy b1 = g^r1 * G^d1 * y^d1 and b2 = g^r2 * G^-d2 * y^d2. Raising the equations of proof i
+ * to small random exponents a_i, b_i and multiplying them all together gives the single check
+ * <pre>
+ *   prod(b1_i^a_i * b2_i^b_i) = g^sum(a_i*r1_i + b_i*r2_i) * G^sum(a_i*d1_i - b_i*d2_i) * prod(y_i^(a_i*d1_i + b_i*d2_i))
+ * </pre>
+ * The randomizers are drawn from [1, min(2^{@value #RANDOMIZER_BITS}, q)), so a batch with an invalid proof passes
+ * with probability at most about max(2^-{@value #RANDOMIZER_BITS}, 1/q): 2^-{@value #RANDOMIZER_BITS} for groups
+ * of real size, but only about 2^-49 for the 50 bit groups the application and the tests use. The left side is a
+ * multi-exponentiation with short exponents, the right side two fixed-base powers and one multi-exponentiation over
+ * the y values, see {@link MultiExponentiation}. When a batch fails it is split in half until the invalid proofs are found.
+ * <p>
+ * The check is only sound if y, b1 and b2 are members of the prime order subgroup, so callers must only pass
+ * values that went through group membership validation.
+ * <p>
+ * The challenge c of every proof is recomputed from the public key of the voter, y, b1 and b2 and must match,
+ * otherwise anyone could pick c after the commitments and prove a vote of any value.
+ */
+public final class NIProofBatchVerifier {
+
+  public static final int RANDOMIZER_BITS = 64;
+  private static final int MIN_BATCH = 8; // below this the batch overhead costs more than checking one by one
+
+  private static final SecureRandom random = new SecureRandom();
+  private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(NIProofBatchVerifier::newSHA256);
+
+  private final GroupArithmetic arithmetic;
+  private final int elementLength; // bytes of a residue mod p in the challenge, as in an encoded ballot
+  private final BigInteger randomizerBound; // min(2^RANDOMIZER_BITS, q)
+  private final FixedBaseExponentiator gTable;
+  private final FixedBaseExponentiator GTable;
+
+  /**
+   * The values of one proof, with y, b1 and b2 as residues mod p, and the public key of the voter it was made for.
+   */
+  public static final class Statement {
+    final String publicKey;
+    final BigInteger y, b1, b2, r1, r2, d1, d2, c;
+
+    public Statement(String publicKey, BigInteger y, BigInteger b1, BigInteger b2, BigInteger r1, BigInteger r2, BigInteger d1, BigInteger d2, BigInteger c) {
+      this.publicKey = publicKey;
+      this.y = y;
+      this.b1 = b1;
+      this.b2 = b2;
+      this.r1 = r1;
+      this.r2 = r2;
+      this.d1 = d1;
+      this.d2 = d2;
+      this.c = c;
+    }
+
+    public BigInteger getY() {
+      return y;
+    }
+
+    public BigInteger getB1() {
+      return b1;
+    }
+
+    public BigInteger getB2() {
+      return b2;
+    }
+  }
+
+  public NIProofBatchVerifier(GroupArithmetic arithmetic, FixedBaseExponentiator gTable, FixedBaseExponentiator GTable) {
+    this.arithmetic = arithmetic;
+    this.elementLength = (arithmetic.getModulus().bitLength() + 7) / 8;
+    this.randomizerBound = arithmetic.getOrder().min(BigInteger.ONE.shiftLeft(RANDOMIZER_BITS));
+    this.gTable = gTable;
+    this.GTable = GTable;
+  }
+
+  /**
+   * @param statements the proofs to verify, null entries are proofs that could not be decoded
+   * @return for every statement whether its proof is valid
+   */
+  public boolean[] verify(Statement[] statements) {
+    boolean[] valid = new boolean[statements.length];
+    int[] candidates = new int[statements.length];
+    int count = 0;
+    for (int i = 0; i < statements.length; i++) {
+      // the challenge is a hash and d1 + d2 = c a plain integer check, only the group equations are worth batching
+      if (statements[i] != null && verifyChallenge(statements[i]))
+        candidates[count++] = i;
+    }
+    verifyRange(statements, candidates, 0, count, valid);
+    return valid;
+  }
+
+  private void verifyRange(Statement[] statements, int[] candidates, int from, int to, boolean[] valid) {
+    int size = to - from;
+    if (size == 0)
+      return;
+    if (size < MIN_BATCH) {
+      for (int i = from; i < to; i++) {
+        valid[candidates[i]] = verifyEquations(statements[candidates[i]]);
+      }
+      return;
+    }
+    if (verifyCombined(statements, candidates, from, to)) {
+      for (int i = from; i < to; i++) {
+        valid[candidates[i]] = true;
+      }
+      return;
+    }
+    int middle = from + size / 2;
+    verifyRange(statements, candidates, from, middle, valid);
+    verifyRange(statements, candidates, middle, to, valid);
+  }
+
+  /**
+   * Verifies a single proof exactly, without any batching or randomness.
+   */
+  public boolean verify(Statement s) {
+    return verifyChallenge(s) && verifyEquations(s);
+  }
+
+  private boolean verifyChallenge(Statement s) {
+    return s.publicKey != null && s.d1.add(s.d2).equals(s.c) && s.c.equals(challenge(s.publicKey, s.y, s.b1, s.b2));
+  }
+
+  /**
+   * Fiat-Shamir challenge c = SHA256(PubKey, y, b1, b2) mod p, computed with the digest of the calling thread.
+   * y, b1 and b2 are hashed as the fixed width big-endian bytes they have in an encoded ballot.
+   *
+   * @throws IllegalArgumentException if y, b1 or b2 is not a residue mod p
+   */
+  public BigInteger challenge(String publicKey, BigInteger y, BigInteger b1, BigInteger b2) {
+    MessageDigest sha256 = SHA256.get();
+    sha256.update(publicKey.getBytes());
+    for (BigInteger value : new BigInteger[]{y, b1, b2}) {
+      if (value.signum() < 0 || value.compareTo(arithmetic.getModulus()) >= 0)
+        throw new IllegalArgumentException("Value is not a residue mod p.");
+      byte[] bytes = value.toByteArray();
+      int length = Math.min(bytes.length, elementLength); // toByteArray may add a leading sign byte
+      sha256.update(new byte[elementLength - length]);
+      sha256.update(bytes, bytes.length - length, length);
+    }
+    return new BigInteger(sha256.digest()).abs().mod(arithmetic.getModulus());
+  }
+
+  private static MessageDigest newSHA256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Java implementation is missing SHA256 algorithm. Please change to a normal implementation.");
+    }
+  }
+
+  /**
+   * Checks b1 = g^r1 * G^d1 * y^d1 and b2 = g^r2 * G^-d2 * y^d2, each as one multi-exponentiation of the three bases
+   * g, G and y instead of three separate powers, see {@link MultiExponentiation}.
+   */
+  private boolean verifyEquations(Statement s) {
+    BigInteger[] bases = {gTable.getBase(), GTable.getBase(), s.y};
+    return arithmetic.productOfPowers(bases, new BigInteger[]{s.r1, s.d1, s.d1}).equals(s.b1)
+      && arithmetic.productOfPowers(bases, new BigInteger[]{s.r2, s.d2.negate(), s.d2}).equals(s.b2);
+  }
+
+  /**
+   * Computes b = g^r * base^d, the commitment both proof equations have in common, as one multi-exponentiation.
+   */
+  public BigInteger commitment(BigInteger r, BigInteger base, BigInteger d) {
+    return arithmetic.productOfPowers(new BigInteger[]{gTable.getBase(), base}, new BigInteger[]{r, d});
+  }
+
+  private boolean verifyCombined(Statement[] statements, int[] candidates, int from, int to) {
+    int size = to - from;
+    BigInteger[] commitments = new BigInteger[2 * size];
+    BigInteger[] randomizers = new BigInteger[2 * size];
+    BigInteger[] ys = new BigInteger[size];
+    BigInteger[] yExponents = new BigInteger[size];
+    BigInteger gExponent = BigInteger.ZERO;
+    BigInteger GExponent = BigInteger.ZERO;
+    for (int i = 0; i < size; i++) {
+      Statement s = statements[candidates[from + i]];
+      BigInteger alpha = randomizer();
+      BigInteger beta = randomizer();
+      commitments[2 * i] = s.b1;
+      randomizers[2 * i] = alpha;
+      commitments[2 * i + 1] = s.b2;
+      randomizers[2 * i + 1] = beta;
+      ys[i] = s.y;
+      yExponents[i] = alpha.multiply(s.d1).add(beta.multiply(s.d2));
+      gExponent = gExponent.add(alpha.multiply(s.r1)).add(beta.multiply(s.r2));
+      GExponent = GExponent.add(alpha.multiply(s.d1)).subtract(beta.multiply(s.d2));
+    }
+    BigInteger left = arithmetic.productOfPowers(commitments, randomizers);
+    BigInteger right = arithmetic.multiply(arithmetic.multiply(gTable.power(gExponent), GTable.power(GExponent)),
+      arithmetic.productOfPowers(ys, yExponents));
+    return left.equals(right);
+  }
+
+  /**
+   * @return a uniformly random randomizer in [1, min(2^RANDOMIZER_BITS, q))
+   */
+  private BigInteger randomizer() {
+    int bits = randomizerBound.subtract(BigInteger.ONE).bitLength();
+    BigInteger value;
+    do {
+      value = new BigInteger(bits, random);
+    } while (value.signum() == 0 || value.compareTo(randomizerBound) >= 0);
+    return value;
+  }
+}
@@ -0,0 +1,49 @@
+package edu.pentakon.votingapp.crypto;
+
+import java.math.BigInteger;
+
+/**
+ * RSA private key in Chinese remainder theorem form.
+ * <p>
+ * A private key operation c^d mod n is done as c^(d mod p-1) mod p and c^(d mod q-1) mod q, which are recombined
+ * with Garner's formula. Both exponentiations have half size moduli and exponents, so the operation is about three
+ * times faster than a plain exponentiation mod n. Instances are immutable.
+ */
+public final class RsaCrtKey {
+
+  private final BigInteger p;
+  private final BigInteger q;
+  private final BigInteger modulus;
+  private final BigInteger dp; // d mod (p - 1)
+  private final BigInteger dq; // d mod (q - 1)
+  private final BigInteger qInverse; // q^-1 mod p
+
+  /**
+   * @param p the first prime factor of the modulus
+   * @param q the second prime factor of the modulus
+   * @param d the private exponent
+   */
+  public RsaCrtKey(BigInteger p, BigInteger q, BigInteger d) {
+    this.p = p;
+    this.q = q;
+    this.modulus = p.multiply(q);
+    this.dp = d.mod(p.subtract(BigInteger.ONE));
+    this.dq = d.mod(q.subtract(BigInteger.ONE));
+    this.qInverse = q.modInverse(p);
+  }
+
+  public BigInteger getModulus() {
+    return modulus;
+  }
+
+  /**
+   * @param value a residue mod n
+   * @return value^d mod n
+   */
+  public BigInteger power(BigInteger value) {
+    BigInteger mp = value.mod(p).modPow(dp, p);
+    BigInteger mq = value.mod(q).modPow(dq, q);
+    BigInteger h = qInverse.multiply(mp.subtract(mq)).mod(p);
+    return mq.add(h.multiply(q));
+  }
+}
@@ -0,0 +1,187 @@
+package edu.pentakon.votingapp.crypto;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Membership checks for the subgroup of quadratic residues of Z*p, the group of prime order q = (p - 1) / 2 of a
+ * safe prime p. A residue x in [1, p) is a member exactly if its Legendre symbol (x|p) is 1.
+ * <p>
+ * Values from the chain are checked in batches without one Legendre symbol per value. The Legendre symbol is
+ * multiplicative, so every value is put into one of {@value #BUCKETS} random buckets and only the bucket products are
+ * checked. A bucket with an odd number of non-members has symbol -1, its values are checked one by one and the others
+ * go through another round with new buckets. However many non-members are left, a round in which no bucket fails
+ * misses them with probability at most 1/{@value #BUCKETS}: wherever all but one of them went, there is at most one
+ * bucket the last one can land in to leave every bucket even. The values left are therefore only accepted after
+ * {@value #ROUNDS} + ceil(log2(n) / 8) rounds in a row without a failing bucket. Every failing round removes at least
+ * one non-member, so there are at most n + 1 such runs and a non-member is missed with probability at most
+ * 2^-{@value #SECURITY_BITS}. A batch of n members costs those rounds of n modular multiplications and
+ * {@value #BUCKETS} Legendre symbols each, however large it is; every value of a failing bucket costs one more symbol,
+ * so batches with many non-members end up checked mostly one value at a time. Smaller batches, and moduli of less
+ * than 63 bits, whose symbols are computed on primitive longs and cost less than the multiplications, are checked one
+ * value at a time.
+ * <p>
+ * Values the application computed itself are members by construction and need no check at all. Instances are
+ * cached per modulus and are immutable and thread-safe.
+ */
+public final class SubgroupMembership {
+
+  public static final int SECURITY_BITS = 64;
+  static final int BUCKETS = 256; // one random byte per value and round
+  static final int ROUNDS = SECURITY_BITS / 8; // every round without a failing bucket misses non-members with probability 2^-8
+
+  private static final Map<BigInteger, SubgroupMembership> instances = new ConcurrentHashMap<>();
+  private static final SecureRandom random = new SecureRandom();
+
+  private final GroupArithmetic arithmetic;
+  private final BigInteger modulus;
+
+  private SubgroupMembership(GroupArithmetic arithmetic) {
+    this.arithmetic = arithmetic;
+    this.modulus = arithmetic.getModulus();
+  }
+
+  /**
+   * @param modulus the safe prime p
+   * @param order   the order (p - 1) / 2 of the subgroup
+   */
+  public static SubgroupMembership getInstance(BigInteger modulus, BigInteger order) {
+    if (!modulus.subtract(BigInteger.ONE).shiftRight(1).equals(order))
+      throw new IllegalArgumentException("Membership checks need the subgroup of order (p - 1) / 2 of a safe prime p.");
+    return instances.computeIfAbsent(modulus, key -> new SubgroupMembership(GroupArithmetic.getInstance(modulus, order)));
+  }
+
+  /**
+   * @return whether the value is a residue mod p in the subgroup, false for null
+   */
+  public boolean contains(BigInteger value) {
+    return inRange(value) && legendre(value) == 1;
+  }
+
+  /**
+   * Checks all values at once, see the class comment.
+   *
+   * @param values the values to check, null entries are not members
+   * @return for every value whether it is a member of the subgroup
+   */
+  public boolean[] containsAll(BigInteger[] values) {
+    boolean[] members = new boolean[values.length];
+    int[] candidates = new int[values.length];
+    int count = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (inRange(values[i]))
+        candidates[count++] = i;
+    }
+
+    if (count <= ROUNDS * BUCKETS || smallModulus()) {
+      for (int i = 0; i < count; i++) {
+        members[candidates[i]] = legendre(values[candidates[i]]) == 1;
+      }
+      return members;
+    }
+    int rounds = ROUNDS + (32 - Integer.numberOfLeadingZeros(count) + 7) / 8;
+    int passed = 0; // rounds in a row without a failing bucket
+    while (count > 0 && passed < rounds) {
+      int left = bucketRound(values, candidates, count, members);
+      passed = left == count ? passed + 1 : 0;
+      count = left;
+    }
+    for (int i = 0; i < count; i++) {
+      members[candidates[i]] = true;
+    }
+    return members;
+  }
+
+  /**
+   * Puts the candidates into random buckets and checks the values of every failing bucket one by one.
+   *
+   * @return the number of candidates left, moved to the front of candidates
+   */
+  private int bucketRound(BigInteger[] values, int[] candidates, int count, boolean[] members) {
+    byte[] bucketOf = new byte[count]; // one random byte per value, drawn at once since SecureRandom calls are slow
+    random.nextBytes(bucketOf);
+    int[] sizes = new int[BUCKETS + 1];
+    for (int i = 0; i < count; i++) {
+      sizes[(bucketOf[i] & 0xFF) + 1]++;
+    }
+    for (int b = 0; b < BUCKETS; b++) {
+      sizes[b + 1] += sizes[b]; // start of every bucket in the sorted order
+    }
+    int[] sorted = new int[count];
+    int[] next = Arrays.copyOf(sizes, BUCKETS);
+    for (int i = 0; i < count; i++) {
+      sorted[next[bucketOf[i] & 0xFF]++] = candidates[i];
+    }
+
+    int left = 0;
+    for (int b = 0; b < BUCKETS; b++) {
+      BigInteger[] bucket = new BigInteger[sizes[b + 1] - sizes[b]];
+      for (int i = 0; i < bucket.length; i++) {
+        bucket[i] = values[sorted[sizes[b] + i]];
+      }
+      if (legendre(arithmetic.product(bucket)) == 1) {
+        for (int i = sizes[b]; i < sizes[b + 1]; i++) {
+          candidates[left++] = sorted[i];
+        }
+      } else {
+        for (int i = sizes[b]; i < sizes[b + 1]; i++) {
+          members[sorted[i]] = legendre(values[sorted[i]]) == 1;
+        }
+      }
+    }
+    return left;
+  }
+
+  private boolean smallModulus() {
+    return modulus.bitLength() < Long.SIZE - 1;
+  }
+
+  private boolean inRange(BigInteger value) {
+    return value != null && value.signum() > 0 && value.compareTo(modulus) < 0;
+  }
+
+  /**
+   * @return the Legendre symbol (a|p) of a residue a in [1, p), computed as a Jacobi symbol without exponentiation
+   */
+  int legendre(BigInteger a) {
+    if (smallModulus())
+      return jacobi(a.longValue(), modulus.longValue());
+    return jacobi(a, modulus);
+  }
+
+  static int jacobi(long a, long n) {
+    int result = 1;
+    while (a != 0) {
+      int zeros = Long.numberOfTrailingZeros(a);
+      a >>= zeros;
+      if ((zeros & 1) == 1 && ((n & 7) == 3 || (n & 7) == 5))
+        result = -result;
+      if ((a & 3) == 3 && (n & 3) == 3)
+        result = -result;
+      long t = a;
+      a = n % a;
+      n = t;
+    }
+    return n == 1 ? result : 0;
+  }
+
+  static int jacobi(BigInteger a, BigInteger n) {
+    int result = 1;
+    while (a.signum() != 0) {
+      int zeros = a.getLowestSetBit();
+      a = a.shiftRight(zeros);
+      int n8 = n.intValue() & 7;
+      if ((zeros & 1) == 1 && (n8 == 3 || n8 == 5))
+        result = -result;
+      if ((a.intValue() & 3) == 3 && (n8 & 3) == 3)
+        result = -result;
+      BigInteger t = a;
+      a = n.mod(a);
+      n = t;
+    }
+    return n.equals(BigInteger.ONE) ? result : 0;
+  }
+}
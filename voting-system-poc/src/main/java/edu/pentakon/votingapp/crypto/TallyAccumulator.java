@@ -0,0 +1,132 @@
+package edu.pentakon.votingapp.crypto;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Running product of encrypted votes, i.e. the homomorphic tally of all the votes added so far.
+ * <p>
+ * Votes can be added one at a time as they arrive or in chunks. Large chunks are multiplied on the common fork/join
+ * pool with a tree reduction, and partial accumulators of parallel workers can be combined with
+ * {@link #merge(TallyAccumulator)}. A vote that is replaced later is taken out again by multiplying with its inverse,
+ * so the tally never has to be recomputed from the whole vote set.
+ * <p>
+ * The state can be saved with {@link #checkpoint()} and restored with {@link #TallyAccumulator(GroupArithmetic,
+ * Checkpoint)}. All methods are thread-safe. Values must be residues mod p that went through group membership
+ * validation.
+ */
+public final class TallyAccumulator {
+
+  static final int PARALLEL_THRESHOLD = 4096; // below this splitting costs more than it saves
+
+  private final GroupArithmetic arithmetic;
+  private BigInteger product;
+  private long count;
+
+  /**
+   * The product and vote count of an accumulator at one point in time.
+   */
+  public static final class Checkpoint {
+    public final BigInteger product;
+    public final long count;
+
+    public Checkpoint(BigInteger product, long count) {
+      this.product = product;
+      this.count = count;
+    }
+  }
+
+  public TallyAccumulator(GroupArithmetic arithmetic) {
+    this(arithmetic, new Checkpoint(BigInteger.ONE, 0));
+  }
+
+  public TallyAccumulator(GroupArithmetic arithmetic, Checkpoint checkpoint) {
+    this.arithmetic = arithmetic;
+    this.product = checkpoint.product;
+    this.count = checkpoint.count;
+  }
+
+  public synchronized void add(BigInteger vote) {
+    product = arithmetic.multiply(product, vote);
+    count++;
+  }
+
+  /**
+   * Adds a chunk of votes, multiplying them in parallel if there are enough of them.
+   */
+  public void addAll(BigInteger[] votes) {
+    BigInteger chunkProduct = product(arithmetic, votes);
+    synchronized (this) {
+      product = arithmetic.multiply(product, chunkProduct);
+      count += votes.length;
+    }
+  }
+
+  /**
+   * Takes a vote that was added before out of the tally again.
+   */
+  public synchronized void remove(BigInteger vote) {
+    product = arithmetic.divide(product, vote);
+    count--;
+  }
+
+  /**
+   * Adds all the votes of another accumulator, e.g. the partial tally of a parallel worker.
+   */
+  public void merge(TallyAccumulator other) {
+    Checkpoint partial = other.checkpoint();
+    synchronized (this) {
+      product = arithmetic.multiply(product, partial.product);
+      count += partial.count;
+    }
+  }
+
+  public synchronized Checkpoint checkpoint() {
+    return new Checkpoint(product, count);
+  }
+
+  public synchronized BigInteger getProduct() {
+    return product;
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * @return the product of all values mod p, computed as a tree reduction on the common fork/join pool for large arrays
+   */
+  public static BigInteger product(GroupArithmetic arithmetic, BigInteger[] values) {
+    if (values.length < PARALLEL_THRESHOLD)
+      return arithmetic.product(values);
+    return ForkJoinPool.commonPool().invoke(new ProductTask(arithmetic, values, 0, values.length));
+  }
+
+  private static final class ProductTask extends RecursiveTask<BigInteger> {
+
+    private final GroupArithmetic arithmetic;
+    private final BigInteger[] values;
+    private final int from;
+    private final int to;
+
+    private ProductTask(GroupArithmetic arithmetic, BigInteger[] values, int from, int to) {
+      this.arithmetic = arithmetic;
+      this.values = values;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected BigInteger compute() {
+      if (to - from <= PARALLEL_THRESHOLD)
+        return arithmetic.product(Arrays.copyOfRange(values, from, to));
+      int middle = (from + to) >>> 1;
+      ProductTask left = new ProductTask(arithmetic, values, from, middle);
+      left.fork();
+      BigInteger right = new ProductTask(arithmetic, values, middle, to).compute();
+      return arithmetic.multiply(left.join(), right);
+    }
+  }
+}
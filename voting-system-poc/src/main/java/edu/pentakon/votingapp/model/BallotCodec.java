@@ -0,0 +1,119 @@
+package edu.pentakon.votingapp.model;
+
+import com.owlike.genson.Genson;
+import com.owlike.genson.GensonBuilder;
+import com.owlike.genson.reflect.VisibilityFilter;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Versioned binary encoding of a {@link Ballot} and its {@link NIProof}, sent as Base64 in the ballot string.
+ * <p>
+ * All values have the fixed width L of the group modulus p, big-endian:
+ * <pre>
+ *   version (1) || L (2) || choice (8) || y || b1 || b2 || c || r1 || r2 || d1
+ * </pre>
+ * The exponents r1, r2 and d1 are reduced mod q, which does not change the proof equations since all the bases have
+ * order q. d2 is not sent, it is c - d1. With a 50 bit group a ballot takes 80 characters instead of about 250 of
+ * JSON with decimal strings. Decoding converts every value from its fixed width bytes, which on Java 8 still copies
+ * each of them out of the buffer, and keeps them with the proof, so verification does not parse them from decimal
+ * strings again.
+ * <p>
+ * Ballots of earlier versions are JSON, which {@link #decode(String)} still accepts. Instances are immutable and
+ * thread-safe.
+ */
+public final class BallotCodec {
+
+  static final byte VERSION = 1;
+  private static final int HEADER_LENGTH = 1 + 2 + 8;
+  private static final int VALUES = 7;
+
+  private static final Genson genson = new GensonBuilder().setConstructorFilter(VisibilityFilter.ALL).create();
+
+  private final BigInteger modulus;
+  private final BigInteger order;
+  private final int elementLength; // bytes
+
+  /**
+   * @param modulus the modulus p of the group
+   * @param order the order q of the group
+   */
+  public BallotCodec(BigInteger modulus, BigInteger order) {
+    this.modulus = modulus;
+    this.order = order;
+    this.elementLength = (modulus.bitLength() + 7) / 8;
+  }
+
+  public String encode(Ballot ballot) {
+    NIProof proof = ballot.proof;
+    BigInteger c = new BigInteger(proof.c);
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + VALUES * elementLength);
+    buffer.put(VERSION).putShort((short) elementLength).putLong(ballot.choice);
+    putElement(buffer, new BigInteger(proof.y));
+    putElement(buffer, new BigInteger(proof.b1));
+    putElement(buffer, new BigInteger(proof.b2));
+    putElement(buffer, c);
+    putElement(buffer, new BigInteger(proof.r1).mod(order));
+    putElement(buffer, new BigInteger(proof.r2).mod(order));
+    putElement(buffer, new BigInteger(proof.d1).mod(order));
+    return Base64.getEncoder().encodeToString(buffer.array());
+  }
+
+  /**
+   * Decodes a ballot of {@link #encode(Ballot)} or the JSON of earlier versions.
+   *
+   * @throws IllegalArgumentException if the ballot is malformed or of another group
+   */
+  public Ballot decode(String serialized) {
+    if (serialized.startsWith("{"))
+      return genson.deserialize(serialized, Ballot.class);
+
+    ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(serialized));
+    if (buffer.remaining() != HEADER_LENGTH + VALUES * elementLength || buffer.get() != VERSION
+      || (buffer.getShort() & 0xFFFF) != elementLength)
+      throw new IllegalArgumentException("Not a ballot of version " + VERSION + " for this group.");
+    long choice = buffer.getLong();
+    BigInteger y = getElement(buffer, modulus);
+    BigInteger b1 = getElement(buffer, modulus);
+    BigInteger b2 = getElement(buffer, modulus);
+    BigInteger c = getElement(buffer, modulus);
+    BigInteger r1 = getElement(buffer, order);
+    BigInteger r2 = getElement(buffer, order);
+    BigInteger d1 = getElement(buffer, order);
+    BigInteger d2 = c.subtract(d1);
+    NIProof proof = new NIProof()
+      .setY(y.toString())
+      .setB1(b1.toString())
+      .setB2(b2.toString())
+      .setR1(r1.toString())
+      .setR2(r2.toString())
+      .setD1(d1.toString())
+      .setD2(d2.toString())
+      .setC(c.toString());
+    proof.decoded = new BigInteger[]{y, b1, b2, r1, r2, d1, d2, c};
+    return new Ballot(choice, proof);
+  }
+
+  private void putElement(ByteBuffer buffer, BigInteger value) {
+    if (value.signum() < 0 || value.compareTo(modulus) >= 0)
+      throw new IllegalArgumentException("Value is not a residue mod p.");
+    byte[] bytes = value.toByteArray();
+    int length = Math.min(bytes.length, elementLength); // toByteArray may add a leading sign byte
+    for (int i = length; i < elementLength; i++) {
+      buffer.put((byte) 0);
+    }
+    buffer.put(bytes, bytes.length - length, length);
+  }
+
+  private BigInteger getElement(ByteBuffer buffer, BigInteger bound) {
+    int from = buffer.position();
+    buffer.position(from + elementLength);
+    BigInteger value = new BigInteger(1, Arrays.copyOfRange(buffer.array(), from, from + elementLength));
+    if (value.compareTo(bound) >= 0)
+      throw new IllegalArgumentException("Ballot value is out of range.");
+    return value;
+  }
+}
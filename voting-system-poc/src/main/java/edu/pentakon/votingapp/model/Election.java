@@ -9,6 +9,7 @@ public class Election {
   private long votingEnd;
   private BigInteger cyclicGroupPrime;
   private String[] allowedVoterIds;
+  private int threshold; // 0 means every participant is needed
 
   public Election(String title, long votingStart, long votingEnd, BigInteger cyclicGroupPrime) {
     this.title = title;
@@ -41,4 +42,16 @@ public class Election {
   public String[] getAllowedVoterIds() {
     return allowedVoterIds;
   }
+
+  public Election setThreshold(int threshold) {
+    this.threshold = threshold;
+    return this;
+  }
+
+  /**
+   * @return how many participants must post their MPC sums before the overkey can be recovered and the votes tallied
+   */
+  public int getThreshold() {
+    return threshold > 0 ? threshold : allowedVoterIds.length;
+  }
 }
@@ -2,6 +2,9 @@ package edu.pentakon.votingapp.model;
 
 import ch.bfh.unicrypt.math.algebra.multiplicative.classes.GStarModElement;
 import ch.bfh.unicrypt.math.algebra.multiplicative.classes.GStarModPrime;
+import edu.pentakon.votingapp.crypto.FixedBaseExponentiator;
+import edu.pentakon.votingapp.crypto.GroupArithmetic;
+import edu.pentakon.votingapp.crypto.NIProofBatchVerifier;
 
 import java.math.BigInteger;
 
@@ -18,61 +21,101 @@ public class NIProof {
   public String d2;
   public String c;
 
-  public boolean verify(GStarModPrime group, GStarModElement g, GStarModElement G) { // TODO verify c validity with SHA256 and pub key
-    final BigInteger Y = new BigInteger(y);
-    final BigInteger B1 = new BigInteger(b1);
-    final BigInteger B2 = new BigInteger(b2);
-    final BigInteger C = new BigInteger(c);
-    final BigInteger D1 = new BigInteger(d1);
-    final BigInteger D2 = new BigInteger(d2);
-    final BigInteger R1 = new BigInteger(r1);
-    final BigInteger R2 = new BigInteger(r2);
-    GStarModElement y = group.getElementFrom(Y);
-    boolean cOk = D1.add(D2).equals(C);
-//    boolean b1Ok = b1 == g.power(r1).multiply(G.power(d1).multiply(y.power(d1))).getValue().longValueExact();
-    boolean b1Ok = g.power(R1).multiply(G.power(D1).multiply(y.power(D1))).convertToBigInteger().equals(B1);
-//    boolean b2Ok = b2 == g.power(r2).multiply(y.divide(G).power(d2)).getValue().longValueExact();
-    boolean b2Ok = g.power(R2).multiply(y.divide(G).power(D2)).convertToBigInteger().equals(B2);
-    return cOk && b1Ok && b2Ok;
+  // y, b1, b2, r1, r2, d1, d2, c of a proof decoded by BallotCodec, so that they are not parsed from the strings again;
+  // every setter drops them
+  transient BigInteger[] decoded;
+
+  /**
+   * @param publicKey the public key of the voter the proof was made for, which c is bound to
+   */
+  public boolean verify(GStarModPrime group, GStarModElement g, GStarModElement G, String publicKey) {
+    final GroupArithmetic arithmetic = GroupArithmetic.getInstance(group.getModulus(), group.getOrder());
+    return verify(group, new NIProofBatchVerifier(arithmetic,
+      FixedBaseExponentiator.getInstance(group.getModulus(), group.getOrder(), g.getValue()),
+      FixedBaseExponentiator.getInstance(group.getModulus(), group.getOrder(), G.getValue())), publicKey);
+  }
+
+  public boolean verify(GStarModPrime group, NIProofBatchVerifier verifier, String publicKey) {
+    return verifier.verify(toStatement(group, publicKey));
+  }
+
+  /**
+   * Decodes the values of the proof for the verifier. Decoding y, b1 and b2 through the group also checks
+   * that they are members of it, as batch verification requires.
+   */
+  public NIProofBatchVerifier.Statement toStatement(GStarModPrime group, String publicKey) {
+    NIProofBatchVerifier.Statement statement = toStatement(publicKey);
+    group.getElementFrom(statement.getY());
+    group.getElementFrom(statement.getB1());
+    group.getElementFrom(statement.getB2());
+    return statement;
+  }
+
+  /**
+   * Decodes the values of the proof without checking that y, b1 and b2 are members of the group. Callers must
+   * check them before the statement is verified, e.g. for many proofs at once with
+   * {@link edu.pentakon.votingapp.crypto.SubgroupMembership#containsAll(BigInteger[])}.
+   */
+  public NIProofBatchVerifier.Statement toStatement(String publicKey) {
+    if (decoded != null)
+      return new NIProofBatchVerifier.Statement(publicKey, decoded[0], decoded[1], decoded[2], decoded[3], decoded[4], decoded[5], decoded[6], decoded[7]);
+    return new NIProofBatchVerifier.Statement(
+      publicKey,
+      new BigInteger(y),
+      new BigInteger(b1),
+      new BigInteger(b2),
+      new BigInteger(r1),
+      new BigInteger(r2),
+      new BigInteger(d1),
+      new BigInteger(d2),
+      new BigInteger(c));
   }
 
   public NIProof setY(String y) {
     this.y = y;
+    decoded = null;
     return this;
   }
 
   public NIProof setB1(String b1) {
     this.b1 = b1;
+    decoded = null;
     return this;
   }
 
   public NIProof setB2(String b2) {
     this.b2 = b2;
+    decoded = null;
     return this;
   }
 
   public NIProof setR1(String r1) {
     this.r1 = r1;
+    decoded = null;
     return this;
   }
 
   public NIProof setR2(String r2) {
     this.r2 = r2;
+    decoded = null;
     return this;
   }
 
   public NIProof setD1(String d1) {
     this.d1 = d1;
+    decoded = null;
     return this;
   }
 
   public NIProof setD2(String d2) {
     this.d2 = d2;
+    decoded = null;
     return this;
   }
 
   public NIProof setC(String c) {
     this.c = c;
+    decoded = null;
     return this;
   }
 }
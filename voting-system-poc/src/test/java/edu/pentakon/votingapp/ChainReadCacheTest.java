@@ -0,0 +1,32 @@
+package edu.pentakon.votingapp;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ChainReadCacheTest {
+
+  @Test
+  public void chainReadCacheShouldServeValuesUntilTheNextBlock() throws Exception {
+    AtomicLong block = new AtomicLong(1);
+    AtomicLong reads = new AtomicLong();
+    ChainReadCache cache = new ChainReadCache(() -> BigInteger.valueOf(block.get()), 0);
+    Callable<Long> loader = reads::incrementAndGet;
+
+    Assertions.assertThat(cache.get("value", ChainReadCache.Validity.BLOCK, loader)).isEqualTo(1);
+    Assertions.assertThat(cache.get("value", ChainReadCache.Validity.BLOCK, loader)).isEqualTo(1);
+    block.incrementAndGet();
+    Assertions.assertThat(cache.get("value", ChainReadCache.Validity.BLOCK, loader)).isEqualTo(2);
+    cache.invalidate(BigInteger.valueOf(2), "value"); // our own transaction in the same block
+    Assertions.assertThat(cache.get("value", ChainReadCache.Validity.BLOCK, loader)).isEqualTo(3);
+
+    Assertions.assertThat(cache.get("roster", ChainReadCache.Validity.CONTRACT, loader)).isEqualTo(4);
+    block.incrementAndGet();
+    Assertions.assertThat(cache.get("roster", ChainReadCache.Validity.CONTRACT, loader)).isEqualTo(4);
+    Assertions.assertThat(cache.getHits()).isEqualTo(2);
+    Assertions.assertThat(cache.getHitRate()).isEqualTo(2.0 / 6);
+  }
+}
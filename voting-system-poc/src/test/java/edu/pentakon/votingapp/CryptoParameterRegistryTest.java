@@ -0,0 +1,21 @@
+package edu.pentakon.votingapp;
+
+import ch.bfh.unicrypt.helper.factorization.SafePrime;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class CryptoParameterRegistryTest {
+
+  @Test
+  public void parameterRegistryShouldReuseInstancesAndEvictTheLeastRecentlyUsed() {
+    SafePrime prime = SafePrime.getRandomInstance(20);
+    Assertions.assertThat(CryptoParameterRegistry.getGroup(prime)).isSameAs(CryptoParameterRegistry.getGroup(SafePrime.getInstance(prime.getValue())));
+
+    Object scheme = CryptoParameterRegistry.getSharingScheme(3, 2);
+    Assertions.assertThat(CryptoParameterRegistry.getSharingScheme(3, 2)).isSameAs(scheme);
+    for (int size = 1000; size < 1000 + CryptoParameterRegistry.MAX_SHARING_SCHEMES; size++) {
+      CryptoParameterRegistry.getSharingScheme(size, 1);
+    }
+    Assertions.assertThat(CryptoParameterRegistry.getSharingScheme(3, 2)).isNotSameAs(scheme);
+  }
+}
@@ -3,9 +3,6 @@ package edu.pentakon.votingapp;
 import ch.bfh.unicrypt.helper.array.classes.ByteArray;
 import ch.bfh.unicrypt.helper.factorization.SafePrime;
 import ch.bfh.unicrypt.math.algebra.general.interfaces.Element;
-import com.owlike.genson.Genson;
-import com.owlike.genson.GensonBuilder;
-import com.owlike.genson.reflect.VisibilityFilter;
 import edu.pentakon.votingapp.model.*;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.*;
@@ -28,10 +25,6 @@ import static org.mockito.Mockito.*;
 @MockitoSettings(strictness = Strictness.LENIENT)
 public class FullScenarioTest {
 
-  private static Genson genson = new GensonBuilder()
-    .setConstructorFilter(VisibilityFilter.ALL)
-    .create();
-
   private SafePrime modQ = SafePrime.getRandomInstance(50); // random 50 bit safe prime
   private String[] voterPasswords = new String[]{
     "4libVkvJt4qyU4EW039Q",
@@ -64,6 +57,14 @@ public class FullScenarioTest {
     VotingApplication.initialize(AppMode.TEST, "ssn");
   }
 
+  @AfterAll
+  void tearDownAll() {
+    for (VotingService service : votingServices) {
+      if (service != null)
+        service.close();
+    }
+  }
+
   @BeforeEach
   void setUpEach() throws Exception {
     if (cryptoServices[0] != null) {
@@ -119,9 +120,9 @@ public class FullScenarioTest {
     boolean[] proofs = new boolean[cryptoServices.length];
     for (int i = 0; i < submittedVotes.size(); i++) {
       VotePayload votePayload = submittedVotes.get(i);
-      Ballot ballot = genson.deserialize(votePayload.ballot, Ballot.class);
+      Ballot ballot = cryptoServices[0].getBallotCodec().decode(votePayload.ballot);
       NIProof proof = ballot.proof;
-      proofs[i] = cryptoServices[0].verifyProof(proof);
+      proofs[i] = cryptoServices[0].verifyProof(proof, votePayload.uid);
     }
     Assertions.assertThat(proofs).doesNotContain(false);
   }
@@ -155,7 +156,7 @@ public class FullScenarioTest {
     Set<BigInteger> votes = new HashSet<>();
     for (int i = 0; i < submittedVotes.size(); i++) {
       VotePayload votePayload = submittedVotes.get(i);
-      Ballot ballot = genson.deserialize(votePayload.ballot, Ballot.class);
+      Ballot ballot = cryptoServices[0].getBallotCodec().decode(votePayload.ballot);
       votes.add(BigInteger.valueOf(ballot.choice));
     }
     BigInteger tally = cryptoServices[0].tallyVotes(votes);
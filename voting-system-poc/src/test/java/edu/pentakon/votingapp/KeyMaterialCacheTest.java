@@ -0,0 +1,35 @@
+package edu.pentakon.votingapp;
+
+import ch.bfh.unicrypt.helper.factorization.SafePrime;
+import edu.pentakon.votingapp.model.KeyPair;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class KeyMaterialCacheTest {
+
+  private String electionTitle = KeyMaterialCacheTest.class.getName();
+
+  @Test
+  public void cachedKeyPairsShouldSurviveARestartOnlyForTheRightPassword(@TempDir Path directory) throws Exception {
+    KeyMaterialCache.setDirectory(directory);
+    try {
+      SafePrime prime = SafePrime.getRandomInstance(5);
+      KeyPair generated = new VotingCryptoService(prime, "cachedseed", electionTitle).generateKeyPair();
+      Assertions.assertThat(Files.list(directory).count()).isEqualTo(1);
+
+      KeyMaterialCache.clear(); // as after a restart, only the file is left
+      KeyPair cached = new VotingCryptoService(prime, "cachedseed", electionTitle).generateKeyPair();
+      Assertions.assertThat(cached.privateKey).isEqualTo(generated.privateKey);
+      Assertions.assertThat(cached.publicKey).isEqualTo(generated.publicKey);
+
+      KeyMaterialCache.Key otherPassword = new KeyMaterialCache.Key("othersseed", electionTitle, prime.getValue());
+      Assertions.assertThat(KeyMaterialCache.get(otherPassword)).isEmpty();
+    } finally {
+      KeyMaterialCache.setDirectory(null);
+    }
+  }
+}
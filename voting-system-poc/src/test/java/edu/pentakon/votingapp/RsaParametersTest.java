@@ -0,0 +1,16 @@
+package edu.pentakon.votingapp;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RsaParametersTest {
+
+  @Test
+  public void shippedRsaParametersShouldMatchTheSearchedPrimes() {
+    RsaParameters shipped = RsaParameters.fromResource().orElseThrow(() -> new AssertionError(RsaParameters.RESOURCE + " is not valid"));
+    RsaParameters searched = RsaParameters.search();
+    Assertions.assertThat(shipped.p).isEqualTo(searched.p);
+    Assertions.assertThat(shipped.q).isEqualTo(searched.q);
+    Assertions.assertThat(RsaParameters.get().modulus).isEqualTo(searched.modulus);
+  }
+}
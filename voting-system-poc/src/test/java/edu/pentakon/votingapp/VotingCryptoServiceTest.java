@@ -2,15 +2,32 @@ package edu.pentakon.votingapp;
 
 import ch.bfh.unicrypt.helper.factorization.SafePrime;
 import ch.bfh.unicrypt.math.algebra.general.interfaces.Element;
+import com.owlike.genson.GensonBuilder;
+import edu.pentakon.votingapp.crypto.SubgroupMembership;
+import edu.pentakon.votingapp.crypto.TallyAccumulator;
 import edu.pentakon.votingapp.model.AppMode;
+import edu.pentakon.votingapp.model.Ballot;
+import edu.pentakon.votingapp.model.BallotCodec;
+import edu.pentakon.votingapp.model.Choice;
 import edu.pentakon.votingapp.model.KeyPair;
+import edu.pentakon.votingapp.model.NIProof;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class VotingCryptoServiceTest {
 
@@ -31,6 +48,26 @@ public class VotingCryptoServiceTest {
     Assertions.assertThat(service.verifySignature(message, signature, pair.publicKey.convertToString())).isTrue();
   }
 
+  @Test
+  public void hashThenSignSignaturesShouldHaveFixedSizeAndLegacySignaturesShouldStillVerify() {
+    KeyPair pair = service.generateKeyPair();
+    String publicKey = pair.publicKey.convertToString();
+    String shortMessage = "asdf";
+    StringBuilder longMessage = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      longMessage.append("{\"choice\":").append(i).append(",\"proof\":\"0123456789\"}");
+    }
+
+    String shortSignature = service.signMessage(shortMessage, pair.privateKey);
+    String longSignature = service.signMessage(longMessage.toString(), pair.privateKey);
+    Assertions.assertThat(longSignature).hasSameSizeAs(shortSignature);
+    Assertions.assertThat(service.verifySignature(longMessage.toString(), longSignature, publicKey)).isTrue();
+    Assertions.assertThat(service.verifySignature(longMessage + " ", longSignature, publicKey)).isFalse();
+
+    String legacySignature = service.signMessageChunked(shortMessage, pair.privateKey);
+    Assertions.assertThat(service.verifySignature(shortMessage, legacySignature, publicKey)).isTrue();
+  }
+
   @Test
   public void verifyOverkeyGenerationForThreeParticipants() {
     final SafePrime prime = SafePrime.getRandomInstance(5);
@@ -71,4 +108,249 @@ public class VotingCryptoServiceTest {
     Element overkey = userA.recoverSharedOverkey(new Element[]{sumA, sumB, sumC});
     Assertions.assertThat(overkey.convertToBigInteger()).isEqualTo(BigInteger.valueOf(36));
   }
+
+  @Test
+  public void sealedSharesShouldAddUpLikeRsaSharesAndRejectTampering() {
+    final SafePrime prime = SafePrime.getRandomInstance(5);
+    VotingCryptoService[] users = new VotingCryptoService[]{
+      new VotingCryptoService(prime, "randomseedA", electionTitle),
+      new VotingCryptoService(prime, "randomseedB", electionTitle),
+      new VotingCryptoService(prime, "randomseedC", electionTitle)
+    };
+    String[] pubKeys = Arrays.stream(users).map(user -> user.generateKeyPair().publicKey.convertToString()).toArray(String[]::new);
+    List<Map<String, String>> sealed = new ArrayList<>();
+    List<Map<String, String>> rsa = new ArrayList<>();
+    for (VotingCryptoService user : users) {
+      sealed.add(user.generateSecretKeyShares(pubKeys.clone(), 3));
+      rsa.add(user.generateSecretKeySharesRSA(pubKeys.clone(), 3));
+    }
+    Assertions.assertThat(sealed.get(0).get(pubKeys[0])).startsWith(VotingCryptoService.SHARE_PREFIX);
+    Assertions.assertThat(sealed.get(0).get(pubKeys[0]).length()).isLessThan(rsa.get(0).get(pubKeys[0]).length());
+
+    Element[] sums = new Element[users.length];
+    Element[] rsaSums = new Element[users.length];
+    for (int i = 0; i < users.length; i++) {
+      sums[i] = users[i].addOwnKeyShares(sealed);
+      rsaSums[i] = users[i].addOwnKeyShares(rsa);
+    }
+    Assertions.assertThat(users[0].recoverSharedOverkey(sums)).isEqualTo(users[0].recoverSharedOverkey(rsaSums));
+
+    byte[] tampered = Base64.getDecoder().decode(sealed.get(1).get(pubKeys[0]).substring(VotingCryptoService.SHARE_PREFIX.length()));
+    tampered[tampered.length - 1] ^= 1;
+    sealed.get(1).put(pubKeys[0], VotingCryptoService.SHARE_PREFIX + Base64.getEncoder().encodeToString(tampered));
+    Assertions.assertThatThrownBy(() -> users[0].addOwnKeyShares(sealed)).isInstanceOf(IllegalArgumentException.class);
+    Assertions.assertThatThrownBy(() -> users[1].addOwnKeyShares(Collections.singletonList(sealed.get(0).get(pubKeys[0]))))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void anyTwoOfThreeParticipantsShouldRecoverTheOverkey() {
+    final SafePrime prime = SafePrime.getRandomInstance(5);
+    VotingCryptoService[] users = new VotingCryptoService[]{
+      new VotingCryptoService(prime, "randomseedA", electionTitle),
+      new VotingCryptoService(prime, "randomseedB", electionTitle),
+      new VotingCryptoService(prime, "randomseedC", electionTitle)
+    };
+    KeyPair[] pairs = new KeyPair[users.length];
+    for (int i = 0; i < users.length; i++) {
+      pairs[i] = users[i].generateKeyPair();
+    }
+    Element[] pubKeys = new Element[]{pairs[0].publicKey, pairs[1].publicKey, pairs[2].publicKey};
+    List<Map<Element, Element>> shares = new ArrayList<>();
+    for (VotingCryptoService user : users) {
+      shares.add(user.generateSecretKeyShares(pubKeys, 2));
+    }
+
+    Element[] sums = new Element[users.length];
+    for (int i = 0; i < users.length; i++) {
+      List<Element> own = new ArrayList<>();
+      for (Map<Element, Element> userShares : shares) {
+        own.add(userShares.get(pairs[i].publicKey));
+      }
+      sums[i] = users[i].addOwnKeyShares(own, pairs[i].privateKey);
+    }
+
+    Element overkey = users[0].recoverSharedOverkey(sums);
+    Assertions.assertThat(users[1].recoverSharedOverkey(new Element[]{sums[0], sums[1]})).isEqualTo(overkey);
+    Assertions.assertThat(users[2].recoverSharedOverkey(new Element[]{sums[2], sums[0]})).isEqualTo(overkey);
+    Assertions.assertThat(users[0].recoverSharedOverkey(new Element[]{sums[1], sums[2]})).isEqualTo(overkey);
+  }
+
+  @Test
+  public void batchVerificationShouldRejectOnlyTamperedProofs() {
+    VotingCryptoService voter = new VotingCryptoService(SafePrime.getRandomInstance(50), "randomseed", electionTitle);
+    KeyPair pair = voter.generateKeyPair();
+    NIProof[] proofs = new NIProof[12];
+    for (int i = 0; i < proofs.length; i++) {
+      proofs[i] = i % 2 == 0 ? voter.createProofOfValidityYES(pair.publicKey) : voter.createProofOfValidityNO(pair.publicKey);
+    }
+    String[] publicKeys = new String[proofs.length];
+    Arrays.fill(publicKeys, pair.publicKey.convertToString());
+    proofs[5].setR1(new BigInteger(proofs[5].r1).add(BigInteger.ONE).toString());
+    publicKeys[7] = new BigInteger(publicKeys[7]).add(BigInteger.ONE).toString(); // submitted by another voter
+
+    boolean[] valid = voter.verifyProofs(proofs, publicKeys);
+    for (int i = 0; i < proofs.length; i++) {
+      Assertions.assertThat(valid[i]).isEqualTo(voter.verifyProof(proofs[i], publicKeys[i]));
+    }
+    Assertions.assertThat(valid[5]).isFalse();
+    Assertions.assertThat(valid[7]).isFalse();
+  }
+
+  @Test
+  public void proofsShouldBeRejectedWhenTheChallengeIsNotTheHashOfTheCommitments() {
+    VotingCryptoService voter = new VotingCryptoService(SafePrime.getRandomInstance(50), "randomseed", electionTitle);
+    KeyPair pair = voter.generateKeyPair();
+    String uid = pair.publicKey.convertToString();
+    NIProof[] proofs = new NIProof[12];
+    for (int i = 0; i < proofs.length; i++) {
+      proofs[i] = voter.createProofOfValidityYES(pair.publicKey);
+    }
+    // any c with d1 + d2 = c satisfies the group equations of the simulated half, so only the hash binds it
+    for (NIProof proof : proofs) {
+      proof.setC(new BigInteger(proof.c).add(BigInteger.ONE).toString()).setD2(new BigInteger(proof.d2).add(BigInteger.ONE).toString());
+    }
+    String[] publicKeys = new String[proofs.length];
+    Arrays.fill(publicKeys, uid);
+
+    Assertions.assertThat(voter.verifyProofs(proofs, publicKeys)).doesNotContain(true);
+    Assertions.assertThat(voter.verifyProof(proofs[0], uid)).isFalse();
+  }
+
+  @Test
+  public void batchedMembershipChecksShouldFindEveryNonMember() {
+    BigInteger p = SafePrime.getRandomInstance(80).getValue();
+    BigInteger q = p.shiftRight(1);
+    SubgroupMembership membership = SubgroupMembership.getInstance(p, q);
+    SecureRandom random = new SecureRandom();
+    BigInteger[] values = new BigInteger[5000]; // large enough to be checked in buckets
+    for (int i = 0; i < values.length; i++) {
+      values[i] = new BigInteger(79, random).add(BigInteger.ONE).pow(2).mod(p);
+    }
+    values[10] = p.subtract(values[10]); // -1 is not a square mod a safe prime
+    values[20] = p.subtract(values[20]);
+    values[30] = values[30].add(p);
+    values[40] = null;
+
+    boolean[] members = membership.containsAll(values);
+    for (int i = 0; i < values.length; i++) {
+      boolean expected = values[i] != null && values[i].compareTo(p) < 0 && values[i].modPow(q, p).equals(BigInteger.ONE);
+      Assertions.assertThat(members[i]).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void batchedMembershipChecksShouldFindThousandsOfNonMembers() {
+    BigInteger p = SafePrime.getRandomInstance(80).getValue();
+    BigInteger q = p.shiftRight(1);
+    SubgroupMembership membership = SubgroupMembership.getInstance(p, q);
+    SecureRandom random = new SecureRandom();
+    BigInteger[] values = new BigInteger[20000]; // enough non-members to pair up in every bucket for several rounds
+    for (int i = 0; i < values.length; i++) {
+      BigInteger square = new BigInteger(79, random).add(BigInteger.ONE).pow(2).mod(p);
+      values[i] = i % 10 == 0 ? square : p.subtract(square);
+    }
+
+    boolean[] members = membership.containsAll(values);
+    for (int i = 0; i < values.length; i++) {
+      Assertions.assertThat(members[i]).isEqualTo(i % 10 == 0);
+    }
+  }
+
+  @Test
+  public void tallyShouldCountIdenticalCiphertextsSeparately() {
+    VotingCryptoService service = new VotingCryptoService(SafePrime.getRandomInstance(50), "randomseed", electionTitle);
+    BigInteger vote = service.encryptChoice(Choice.YES);
+    BigInteger single = service.tallyVotes(Arrays.asList(vote));
+    BigInteger twice = service.tallyVotes(Arrays.asList(vote, vote));
+    Assertions.assertThat(twice).isNotEqualTo(single);
+
+    TallyAccumulator accumulator = service.newTallyAccumulator();
+    accumulator.add(service.decodeVote(vote));
+    accumulator.add(service.decodeVote(vote));
+    Assertions.assertThat(service.tallyVotes(accumulator.checkpoint())).isEqualTo(twice);
+    accumulator.remove(service.decodeVote(vote));
+    Assertions.assertThat(service.tallyVotes(accumulator.checkpoint())).isEqualTo(single);
+    Assertions.assertThat(accumulator.getCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void precomputedProofCommitmentsShouldCompleteExactlyOneProof() {
+    VotingCryptoService voter = new VotingCryptoService(SafePrime.getRandomInstance(50), "randomseed", electionTitle);
+    KeyPair pair = voter.generateKeyPair();
+    for (Choice choice : Choice.values()) {
+      VotingCryptoService.ProofCommitment commitment = voter.precomputeProofOfValidity(choice);
+      Assertions.assertThat(voter.verifyProof(voter.createProofOfValidity(pair.publicKey, commitment), pair.publicKey.convertToString())).isTrue();
+      Assertions.assertThatThrownBy(() -> voter.createProofOfValidity(pair.publicKey, commitment))
+        .isInstanceOf(IllegalStateException.class);
+    }
+  }
+
+  @Test
+  public void binaryBallotsShouldRoundTripAndJsonBallotsShouldStillDecode() {
+    VotingCryptoService voter = new VotingCryptoService(SafePrime.getRandomInstance(50), "randomseed", electionTitle);
+    KeyPair pair = voter.generateKeyPair();
+    String uid = pair.publicKey.convertToString();
+    BallotCodec codec = voter.getBallotCodec();
+    for (Choice choice : Choice.values()) {
+      NIProof proof = choice == Choice.YES ? voter.createProofOfValidityYES(pair.publicKey) : voter.createProofOfValidityNO(pair.publicKey);
+      Ballot ballot = new Ballot(voter.encryptChoice(choice).longValue(), proof);
+      String json = new GensonBuilder().create().serialize(ballot);
+      String binary = codec.encode(ballot);
+      Assertions.assertThat(binary.length()).isLessThan(json.length() / 2);
+
+      Ballot decoded = codec.decode(binary);
+      Assertions.assertThat(decoded.choice).isEqualTo(ballot.choice);
+      Assertions.assertThat(voter.verifyProof(decoded.proof, uid)).isTrue();
+      Assertions.assertThat(voter.challenge(pair.publicKey, decoded.proof).toString()).isEqualTo(proof.c);
+      Assertions.assertThat(voter.verifyProof(codec.decode(json).proof, uid)).isTrue();
+      Assertions.assertThat(voter.verifyProof(codec.decode(binary).proof.setR1(BigInteger.ONE.add(new BigInteger(proof.r1)).toString()), uid)).isFalse();
+
+      byte[] tampered = Base64.getDecoder().decode(binary);
+      tampered[tampered.length - 1] ^= 1;
+      Assertions.assertThat(voter.verifyProof(codec.decode(Base64.getEncoder().encodeToString(tampered)).proof, uid)).isFalse();
+      Assertions.assertThatThrownBy(() -> codec.decode(binary.substring(4))).isInstanceOf(IllegalArgumentException.class);
+    }
+  }
+
+  @Test
+  public void proofsShouldStayValidWhenGeneratedAndVerifiedConcurrently() throws Exception {
+    VotingCryptoService voter = new VotingCryptoService(SafePrime.getRandomInstance(50), "randomseed", electionTitle);
+    KeyPair pair = voter.generateKeyPair();
+    String uid = pair.publicKey.convertToString();
+    String[] publicKeys = new String[200];
+    Arrays.fill(publicKeys, uid);
+    int threads = 8;
+    int proofsPerThread = publicKeys.length;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<NIProof[]>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        results.add(executor.submit(() -> {
+          start.await();
+          NIProof[] proofs = new NIProof[proofsPerThread];
+          for (int i = 0; i < proofs.length; i++) {
+            proofs[i] = i % 2 == 0 ? voter.createProofOfValidityYES(pair.publicKey) : voter.createProofOfValidityNO(pair.publicKey);
+            Assertions.assertThat(voter.verifyProof(proofs[i], uid)).isTrue();
+          }
+          return proofs;
+        }));
+      }
+      start.countDown();
+
+      for (Future<NIProof[]> result : results) {
+        NIProof[] proofs = result.get(2, TimeUnit.MINUTES);
+        for (boolean valid : voter.verifyProofs(proofs, publicKeys)) {
+          Assertions.assertThat(valid).isTrue();
+        }
+        // a digest shared between threads would have mixed up the challenges
+        for (NIProof proof : proofs) {
+          Assertions.assertThat(voter.challenge(pair.publicKey, proof).toString()).isEqualTo(proof.c);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 }
@@ -0,0 +1,68 @@
+package edu.pentakon.votingapp.crypto;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Random;
+
+public class HybridShareCipherTest {
+
+  private static final BigInteger PUBLIC_EXPONENT = BigInteger.valueOf(65537); // the size of the shares does not depend on it
+
+  private final Random random = new Random(42);
+  private BigInteger p;
+  private BigInteger q;
+  private BigInteger modulus;
+  private HybridShareCipher cipher;
+
+  @BeforeEach
+  public void setUp() {
+    BigInteger phi;
+    do { // the sizes of the application's primes, see RsaParameters
+      p = BigInteger.probablePrime(512, random);
+      q = BigInteger.probablePrime(511, random);
+      phi = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
+    } while (!phi.gcd(PUBLIC_EXPONENT).equals(BigInteger.ONE));
+    modulus = p.multiply(q);
+    cipher = new HybridShareCipher(modulus);
+  }
+
+  @Test
+  public void sealedSharesShouldOpenOnlyWithTheirKeyAndAssociatedData() throws Exception {
+    BigInteger d = PUBLIC_EXPONENT.modInverse(p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE)));
+    RsaCrtKey key = new RsaCrtKey(p, q, d);
+    byte[] share = new BigInteger(60, random).toByteArray();
+    byte[] recipient = PUBLIC_EXPONENT.toByteArray();
+
+    byte[] sealed = cipher.seal(PUBLIC_EXPONENT, share, recipient);
+    Assertions.assertThat(sealed).hasSize(cipher.sealedLength(share.length));
+    Assertions.assertThat(cipher.open(key, sealed, recipient)).isEqualTo(share);
+    Assertions.assertThat(cipher.seal(PUBLIC_EXPONENT, share, recipient)).isNotEqualTo(sealed); // a fresh key every time
+
+    Assertions.assertThatThrownBy(() -> cipher.open(key, sealed, new byte[]{1})).isInstanceOf(GeneralSecurityException.class);
+    sealed[sealed.length - 1] ^= 1;
+    Assertions.assertThatThrownBy(() -> cipher.open(key, sealed, recipient)).isInstanceOf(GeneralSecurityException.class);
+  }
+
+  /**
+   * The shares of one vote as they go on chain, Base64 sealed shares against textbook RSA blocks in decimal, for
+   * n = 10 to 10,000 participants. The time is documented in the class comment of {@link HybridShareCipher}.
+   */
+  @Test
+  public void sealedSharesShouldTakeLessSpaceThanRsaBlocksForAnyNumberOfParticipants() {
+    for (int n : new int[]{10, 100, 1000, 10000}) {
+      long sealedLength = 0;
+      long rsaLength = 0;
+      for (int i = 0; i < n; i++) {
+        BigInteger share = new BigInteger(60, random); // the share space of the application
+        sealedLength += Base64.getEncoder().encodeToString(cipher.seal(PUBLIC_EXPONENT, share.toByteArray(), PUBLIC_EXPONENT.toByteArray())).length();
+        rsaLength += share.modPow(PUBLIC_EXPONENT, modulus).toString().length();
+      }
+      Assertions.assertThat(sealedLength).as("n = %d", n).isLessThan(rsaLength * 7 / 10);
+    }
+  }
+}
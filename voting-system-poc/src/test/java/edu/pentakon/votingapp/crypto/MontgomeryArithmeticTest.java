@@ -0,0 +1,146 @@
+package edu.pentakon.votingapp.crypto;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class MontgomeryArithmeticTest {
+
+  private final Random random = new Random(42); // fixed, so that a failure can be reproduced
+
+  /**
+   * @return the largest safe prime below the bound
+   */
+  private static BigInteger safePrimeBelow(BigInteger bound) {
+    BigInteger four = BigInteger.valueOf(4);
+    BigInteger candidate = bound.subtract(BigInteger.ONE);
+    candidate = candidate.subtract(candidate.subtract(BigInteger.valueOf(3)).mod(four)); // p = 3 mod 4, so q is odd
+    while (!(candidate.isProbablePrime(64) && candidate.shiftRight(1).isProbablePrime(64))) {
+      candidate = candidate.subtract(four);
+    }
+    return candidate;
+  }
+
+  /**
+   * Safe primes at the top of the supported range, where the intermediate values of a Montgomery multiplication come
+   * closest to overflowing, and a small one.
+   */
+  private List<BigInteger> moduli() {
+    List<BigInteger> moduli = new ArrayList<>();
+    moduli.add(safePrimeBelow(BigInteger.ONE.shiftLeft(MontgomeryArithmetic.MAX_MODULUS_BITS)));
+    moduli.add(safePrimeBelow(BigInteger.ONE.shiftLeft(MontgomeryArithmetic.MAX_MODULUS_BITS).subtract(BigInteger.ONE.shiftLeft(40))));
+    moduli.add(safePrimeBelow(BigInteger.ONE.shiftLeft(MontgomeryArithmetic.MAX_MODULUS_BITS - 1)));
+    moduli.add(safePrimeBelow(BigInteger.ONE.shiftLeft(20)));
+    return moduli;
+  }
+
+  private BigInteger randomBelow(BigInteger bound) {
+    BigInteger value;
+    do {
+      value = new BigInteger(bound.bitLength(), random);
+    } while (value.compareTo(bound) >= 0);
+    return value;
+  }
+
+  private List<BigInteger> values(BigInteger p) {
+    List<BigInteger> values = new ArrayList<>();
+    values.add(BigInteger.ZERO);
+    values.add(BigInteger.ONE);
+    values.add(BigInteger.valueOf(2));
+    values.add(p.subtract(BigInteger.ONE));
+    values.add(p.subtract(BigInteger.valueOf(2)));
+    values.add(p.shiftRight(1)); // q
+    for (int i = 0; i < 20; i++) {
+      values.add(randomBelow(p));
+    }
+    return values;
+  }
+
+  private List<BigInteger> exponents(BigInteger q) {
+    List<BigInteger> exponents = new ArrayList<>();
+    exponents.add(BigInteger.ZERO);
+    exponents.add(BigInteger.ONE);
+    exponents.add(BigInteger.valueOf(2));
+    exponents.add(q.subtract(BigInteger.ONE));
+    exponents.add(q);
+    exponents.add(q.add(BigInteger.ONE));
+    exponents.add(BigInteger.ONE.negate());
+    exponents.add(q.shiftLeft(3).add(BigInteger.valueOf(5))); // larger than the order, reduced by both backends
+    for (int i = 0; i < 20; i++) {
+      exponents.add(randomBelow(q));
+    }
+    return exponents;
+  }
+
+  @Test
+  public void multiplyAndInvertShouldMatchBigIntegerArithmetic() {
+    for (BigInteger p : moduli()) {
+      BigInteger q = p.shiftRight(1);
+      MontgomeryArithmetic montgomery = new MontgomeryArithmetic(p, q);
+      BigIntegerArithmetic reference = new BigIntegerArithmetic(p, q);
+      List<BigInteger> values = values(p);
+      for (BigInteger a : values) {
+        for (BigInteger b : values) {
+          Assertions.assertThat(montgomery.multiply(a, b)).as("%s * %s mod %s", a, b, p).isEqualTo(reference.multiply(a, b));
+        }
+        if (a.signum() != 0) {
+          Assertions.assertThat(montgomery.invert(a)).as("%s^-1 mod %s", a, p).isEqualTo(reference.invert(a));
+          Assertions.assertThat(montgomery.multiply(a, montgomery.invert(a))).isEqualTo(BigInteger.ONE);
+        }
+      }
+      Assertions.assertThat(montgomery.product(values.toArray(new BigInteger[0])))
+        .isEqualTo(reference.product(values.toArray(new BigInteger[0])));
+      Assertions.assertThat(montgomery.product(new BigInteger[0])).isEqualTo(BigInteger.ONE);
+    }
+  }
+
+  @Test
+  public void powersShouldMatchBigIntegerArithmetic() {
+    for (BigInteger p : moduli()) {
+      BigInteger q = p.shiftRight(1);
+      MontgomeryArithmetic montgomery = new MontgomeryArithmetic(p, q);
+      BigIntegerArithmetic reference = new BigIntegerArithmetic(p, q);
+      List<BigInteger> values = values(p);
+      List<BigInteger> exponents = exponents(q);
+      for (BigInteger base : values) {
+        for (BigInteger exponent : exponents) {
+          Assertions.assertThat(montgomery.power(base, exponent)).as("%s^%s mod %s", base, exponent, p)
+            .isEqualTo(reference.power(base, exponent));
+        }
+      }
+
+      BigInteger g = BigInteger.valueOf(4); // a square, so a member of the subgroup
+      FixedBaseExponentiator fixedBase = montgomery.createFixedBase(g, 1 << 16);
+      for (BigInteger exponent : exponents) {
+        Assertions.assertThat(fixedBase.power(exponent)).as("fixed base 4^%s mod %s", exponent, p)
+          .isEqualTo(reference.power(g, exponent));
+      }
+    }
+  }
+
+  @Test
+  public void productsOfPowersShouldMatchBigIntegerArithmetic() {
+    for (BigInteger p : moduli()) {
+      BigInteger q = p.shiftRight(1);
+      MontgomeryArithmetic montgomery = new MontgomeryArithmetic(p, q);
+      BigIntegerArithmetic reference = new BigIntegerArithmetic(p, q);
+      List<BigInteger> values = values(p);
+      List<BigInteger> exponents = exponents(q);
+      // both the interleaved and the bucket method, see MultiExponentiation.STRAUS_MAX_BASES
+      for (int size : new int[]{1, 2, 3, MultiExponentiation.STRAUS_MAX_BASES, MultiExponentiation.STRAUS_MAX_BASES + 1, 100}) {
+        BigInteger[] bases = new BigInteger[size];
+        BigInteger[] powers = new BigInteger[size];
+        for (int i = 0; i < size; i++) {
+          bases[i] = values.get(random.nextInt(values.size()));
+          powers[i] = exponents.get(random.nextInt(exponents.size()));
+        }
+        Assertions.assertThat(montgomery.productOfPowers(bases, powers)).as("%d bases mod %s", size, p)
+          .isEqualTo(reference.productOfPowers(bases, powers));
+      }
+    }
+  }
+}